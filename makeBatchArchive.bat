@@ -0,0 +1,4 @@
+@rem Packs bin into batch.jar and records the classes a batch run loads from it
+@rem into batch.jsa (needs Java 13 or later; archives can only cover jars)
+jar cf batch.jar -C bin .
+(echo 10 1000 luck 1& echo 10 1000 skill 1& echo 10 1000 bias=0.6 1) | java -XX:ArchiveClassesAtExit=batch.jsa -cp batch.jar BatchRun - > nul
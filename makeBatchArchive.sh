@@ -0,0 +1,4 @@
+# Packs bin into batch.jar and records the classes a batch run loads from it
+# into batch.jsa (needs Java 13 or later; archives can only cover jars)
+jar cf batch.jar -C bin .
+printf '10 1000 luck 1\n10 1000 skill 1\n10 1000 bias=0.6 1\n' | java -XX:ArchiveClassesAtExit=batch.jsa -cp batch.jar BatchRun - > /dev/null
@@ -0,0 +1,5 @@
+@rem Uses the class-data-sharing archive from makeBatchArchive.bat if there is one
+set CP=bin
+set CDS=
+if exist batch.jsa set CP=batch.jar& set CDS=-XX:SharedArchiveFile=batch.jsa
+java %CDS% -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -XX:-UsePerfData -cp %CP% BatchRun %*
@@ -0,0 +1,4 @@
+# Uses the class-data-sharing archive from makeBatchArchive.sh if there is one
+CP=bin
+if [ -f batch.jsa ]; then CP=batch.jar; CDS=-XX:SharedArchiveFile=batch.jsa; fi
+java $CDS -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -XX:-UsePerfData -cp $CP BatchRun $*
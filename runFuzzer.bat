@@ -0,0 +1 @@
+java -cp bin;BeanCounterBuggy.jar;jpf-core/build/jpf.jar DifferentialFuzzer %*
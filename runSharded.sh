@@ -0,0 +1 @@
+java -cp bin:jpf-core/build/jpf.jar ShardedRun $*
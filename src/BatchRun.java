@@ -0,0 +1,106 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * BatchRun: A slim headless entry point for scripts that run many small
+ * experiments.
+ *
+ * <p>
+ * BeanCounterLogicImpl.main goes through BeanFactory's parallel streams and
+ * Formatter, and BeanCounterLogic.createInstance pulls in Config and the buggy
+ * implementation. For a 10-slot machine JVM startup and class loading cost far
+ * more than the run itself. BatchRun only touches the core logic classes
+ * (through ShardedRun.runShard, so results match ShardedRun for the same
+ * seed), uses no lambdas or streams, and formats its output by hand.
+ *
+ * <p>
+ * With "-" as the only argument, it reads one job per line from standard input
+ * and prints one result line per job, so a script can run thousands of
+ * experiments in one JVM. runBatch.sh uses a class-data-sharing archive made by
+ * makeBatchArchive.sh when one exists.
+ */
+
+public class BatchRun {
+
+	/**
+	 * Runs one job given as command line style arguments.
+	 *
+	 * @param args slot_count bean_count mode [seed]
+	 * @return the slot bean counts separated by spaces, or null if the arguments
+	 *         are malformed
+	 */
+	static String runJob(String[] args) {
+		if (args.length != 3 && args.length != 4) {
+			return null;
+		}
+		int slotCount;
+		int beanCount;
+		long seed;
+		try {
+			slotCount = Integer.parseInt(args[0]);
+			beanCount = Integer.parseInt(args[1]);
+			seed = args.length == 4 ? Long.parseLong(args[3]) : System.nanoTime();
+		} catch (NumberFormatException ne) {
+			return null;
+		}
+		String mode = args[2];
+		if (slotCount < 1 || beanCount < 0
+				|| !(mode.equals("luck") || mode.equals("skill") || mode.startsWith("bias="))) {
+			return null;
+		}
+		long[] counts;
+		try {
+			counts = ShardedRun.runShard(slotCount, 0, beanCount, mode, seed);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		StringBuilder bld = new StringBuilder();
+		for (int i = 0; i < slotCount; i++) {
+			if (i > 0) {
+				bld.append(' ');
+			}
+			bld.append(counts[i]);
+		}
+		return bld.toString();
+	}
+
+	/**
+	 * Prints usage information.
+	 */
+	public static void showUsage() {
+		System.out.println("Usage: java BatchRun slot_count bean_count <luck | skill | bias=p[,p...]> [seed]");
+		System.out.println("       java BatchRun - (one job per line on standard input)");
+		System.out.println("Example: java BatchRun 10 1000 luck");
+		System.out.println("Example: printf '10 1000 luck 1\\n10 1000 skill 2\\n' | java BatchRun -");
+	}
+
+	/**
+	 * Main method. Prints the slot bean counts of each job.
+	 *
+	 * @param args commandline arguments; see showUsage() for detailed information
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 1 && args[0].equals("-")) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+			StringBuilder out = new StringBuilder();
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				String result = runJob(line.split("\\s+"));
+				out.append(result != null ? result : "ERR " + line).append('\n');
+			}
+			System.out.print(out);
+			return;
+		}
+		String result = runJob(args);
+		if (result == null) {
+			showUsage();
+			return;
+		}
+		System.out.println(result);
+	}
+}
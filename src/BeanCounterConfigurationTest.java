@@ -0,0 +1,154 @@
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Checks the BeanCounterLogic contract of BeanCounterLogicImpl on machines too
+ * large for JPF to explore. Every machine configuration is its own
+ * Parameterized runner, so TestRunner can run the configurations in parallel
+ * and time each one. Unlike BeanCounterLogicTest, the fixture is per instance,
+ * so configurations do not share state.
+ */
+
+@RunWith(Parameterized.class)
+public class BeanCounterConfigurationTest {
+	private final int slotCount;
+	private final int beanCount;
+	private final boolean isLuck;
+	private final String failString;
+	private BeanCounterLogicImpl logic;
+
+	/**
+	 * Returns the machine configurations: every combination of slot count, bean
+	 * count and mode.
+	 */
+	@Parameters(name = "slots={0,number,#},beans={1,number,#},luck={2}")
+	public static Collection<Object[]> configurations() {
+		Collection<Object[]> configurations = new ArrayList<>();
+		for (int slots : new int[] {2, 10, 50, 200}) {
+			for (int beans : new int[] {1, 100, 5000}) {
+				for (boolean luck : new boolean[] {true, false}) {
+					configurations.add(new Object[] {slots, beans, luck});
+				}
+			}
+		}
+		return configurations;
+	}
+
+	public BeanCounterConfigurationTest(int slotCount, int beanCount, boolean isLuck) {
+		this.slotCount = slotCount;
+		this.beanCount = beanCount;
+		this.isLuck = isLuck;
+		failString = "Failure in (slotCount=" + slotCount + ", beanCount=" + beanCount + ", isLuck=" + isLuck
+				+ "):";
+	}
+
+	/**
+	 * Sets up a machine reset with seeded beans.
+	 */
+	@Before
+	public void setUp() {
+		logic = new BeanCounterLogicImpl(slotCount);
+		logic.reset(BeanCounterLogicTest.seededBeans(slotCount, beanCount, isLuck, slotCount * 31 + beanCount));
+	}
+
+	private int[] slotCounts() {
+		int[] counts = new int[slotCount];
+		for (int i = 0; i < slotCount; i++) {
+			counts[i] = logic.getSlotBeanCount(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Test case for boolean advanceStep(). Preconditions: None. Execution steps:
+	 * Call logic.advanceStep() in a loop until it returns false. Invariants: after
+	 * each step the remaining, in-flight and in-slot beans add up to beanCount,
+	 * and at the end every bean is in a slot.
+	 */
+	@Test
+	public void testAdvanceStepBeanCount() {
+		boolean moved;
+		do {
+			moved = logic.advanceStep();
+			int inFlight = 0;
+			int inSlots = 0;
+			for (int i = 0; i < slotCount; i++) {
+				inSlots += logic.getSlotBeanCount(i);
+				if (logic.getInFlightBeanXPos(i) != BeanCounterLogic.NO_BEAN_IN_YPOS) {
+					inFlight++;
+				}
+			}
+			assertEquals(failString, beanCount, logic.getRemainingBeanCount() + inFlight + inSlots);
+			if (!moved) {
+				assertEquals(failString, beanCount, inSlots);
+			}
+		} while (moved);
+	}
+
+	/**
+	 * Test case for void runToCompletion(). Preconditions: None. Execution steps:
+	 * Run the machine step by step, call logic.repeat() and
+	 * logic.runToCompletion(). Invariants: every bean is in a slot, and in skill
+	 * mode every slot holds as many beans as after the stepped run.
+	 */
+	@Test
+	public void testRunToCompletion() {
+		while (logic.advanceStep()) {
+			// Run the first experiment step by step
+		}
+		int[] stepped = slotCounts();
+		logic.repeat();
+		logic.runToCompletion();
+		int[] completed = slotCounts();
+		int inSlots = 0;
+		for (int i = 0; i < slotCount; i++) {
+			inSlots += completed[i];
+			assertEquals(failString, BeanCounterLogic.NO_BEAN_IN_YPOS, logic.getInFlightBeanXPos(i));
+		}
+		assertEquals(failString, 0, logic.getRemainingBeanCount());
+		assertEquals(failString, beanCount, inSlots);
+		if (!isLuck) {
+			assertArrayEquals(failString, stepped, completed);
+		}
+	}
+
+	/**
+	 * Test case for void lowerHalf() and void upperHalf(). Preconditions: None.
+	 * Execution steps: Run the machine to completion and call logic.lowerHalf();
+	 * run the beans that are left again with logic.repeat() and call
+	 * logic.upperHalf(). Invariants: of the N beans in the slots, the lower or
+	 * upper (N+1)/2 are left.
+	 */
+	@Test
+	public void testHalves() {
+		for (boolean upper : new boolean[] {false, true}) {
+			logic.repeat();
+			logic.runToCompletion();
+			int[] expected = slotCounts();
+			int total = 0;
+			for (int count : expected) {
+				total += count;
+			}
+			int keep = (total + 1) / 2;
+			for (int k = 0; k < slotCount; k++) {
+				int i = upper ? slotCount - 1 - k : k;
+				expected[i] = Math.min(expected[i], keep);
+				keep -= expected[i];
+			}
+			if (upper) {
+				logic.upperHalf();
+			} else {
+				logic.lowerHalf();
+			}
+			assertArrayEquals(failString + (upper ? " upperHalf" : " lowerHalf"), expected, slotCounts());
+		}
+	}
+}
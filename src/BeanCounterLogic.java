@@ -37,4 +37,54 @@ public interface BeanCounterLogic {
 	public void repeat();
 
 	public boolean advanceStep();
+
+	/**
+	 * Runs the machine until all beans have landed in slots. The final state is
+	 * the same as calling advanceStep() until it returns false.
+	 */
+	public default void runToCompletion() {
+		while (advanceStep()) {
+			// Keep stepping until the machine is finished
+		}
+	}
+
+	/**
+	 * Advances the machine k steps. The final state is the same as calling
+	 * advanceStep() k times. Once a step makes no progress the machine is empty
+	 * and stays that way, so this default stops stepping there.
+	 *
+	 * @param k the number of steps, at least 0
+	 * @return the number of those steps that made progress (for which
+	 *         advanceStep() would have returned true)
+	 */
+	public default long advanceSteps(long k) {
+		if (k < 0) {
+			throw new IllegalArgumentException("step count must not be negative");
+		}
+		long progress = 0;
+		while (progress < k && advanceStep()) {
+			progress++;
+		}
+		return progress;
+	}
+
+	/**
+	 * Fills a snapshot with the in-flight x-positions, slot bean counts and
+	 * remaining bean count in one call. Implementations that publish their state
+	 * for concurrent readers return a consistent state with a version stamp;
+	 * this default reads the getters one by one and is only consistent if
+	 * nothing changes the machine meanwhile.
+	 *
+	 * @param out the snapshot to fill
+	 * @return the version stamp, or -1 if the state is not versioned
+	 */
+	public default long snapshot(LogicSnapshot out) {
+		for (int i = 0; i < out.slotBeanCounts.length; i++) {
+			out.inFlightXPos[i] = getInFlightBeanXPos(i);
+			out.slotBeanCounts[i] = getSlotBeanCount(i);
+		}
+		out.remainingBeanCount = getRemainingBeanCount();
+		out.version = -1;
+		return out.version;
+	}
 }
\ No newline at end of file
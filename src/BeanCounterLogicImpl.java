@@ -1,12 +1,11 @@
-import gov.nasa.jpf.vm.Verify;
+import gov.nasa.jpf.annotation.FilterField;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Formatter;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.Random;
 
 /**
  * Code by @author Wonsun Ahn
@@ -38,8 +37,20 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 	// TODO: Add member methods and variables as needed
 
 	private BeanImpl[] in_flight_beans;
-	private Queue<BeanImpl> remaining_beans;
-	private Queue<BeanImpl>[] bean_slots;
+	// the beans passed to reset, indexed by bean id; the queues below hold ids
+	// into this table, 4 bytes per bean
+	private BeanImpl[] bean_table;
+	private BeanQueue remaining_beans;
+	private BeanQueue[] bean_slots;
+	// optional listener for landings and slot changes, and the step counter
+	// that places its events on one timeline
+	private LandingEventSink event_sink;
+	@FilterField
+	private long step_count;
+	// state published after every operation, for readers on other threads;
+	// a copy of the fields above with a version counter, so JPF does not hash it
+	@FilterField
+	private final SnapshotPublisher published_state;
 
 	/**
 	 * Constructor - creates the bean counter logic object that implements the core
@@ -48,21 +59,49 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 	 * @param slotCount
 	 *            the number of slots in the machine
 	 */
-	@SuppressWarnings("unchecked")
 	BeanCounterLogicImpl(int slotCount) {
 		// TODO: Implement
 		// in_flight_beans will never be greater than the slotCount
 		in_flight_beans = new BeanImpl[slotCount];
+		bean_table = new BeanImpl[0];
 		// number of Beans remaining that have not been inFlight or in a slot
-		// LL representation is faster for deletion bc no need for indexing/value
-		// deletion: O(1)
-		remaining_beans = new LinkedList<>();
+		// array-backed queues: no node per bean, storage reused across
+		// reset/repeat
+		remaining_beans = new BeanQueue();
 		// slots will hold list of beans from the queue
-		bean_slots = (Queue<BeanImpl>[]) new LinkedList[slotCount];
+		bean_slots = new BeanQueue[slotCount];
 		for (int i = 0; i < getSlotCount(); i++) {
-			bean_slots[i] = new LinkedList<>();
+			bean_slots[i] = new BeanQueue();
 		}
-			
+		published_state = new SnapshotPublisher(slotCount);
+	}
+
+	/**
+	 * Publishes the current state for snapshot(). Called at the end of every
+	 * operation that changes the machine, on the simulation thread.
+	 */
+	private void publish() {
+		published_state.beginWrite();
+		for (int i = 0; i < getSlotCount(); i++) {
+			published_state.setInFlightXPos(i, getInFlightBeanXPos(i));
+			published_state.setSlotBeanCount(i, bean_slots[i].size());
+		}
+		published_state.setRemainingBeanCount(remaining_beans.size());
+		published_state.endWrite();
+	}
+
+	/**
+	 * Fills a snapshot with the state published by the last completed operation.
+	 * Safe to call from any thread while the machine is running; never blocks the
+	 * simulation thread.
+	 * 
+	 * @param out
+	 *            the snapshot to fill
+	 * @return the version stamp, which grows by one with every operation
+	 */
+	@Override
+	public long snapshot(LogicSnapshot out) {
+		return published_state.read(out);
 	}
 
 	/**
@@ -75,6 +114,43 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 		return bean_slots.length;
 	}
 
+	/**
+	 * Attaches a sink that is told about every bean landing and every other
+	 * change to the slots. Pass null to detach. Steps are counted from here.
+	 * 
+	 * @param sink
+	 *            the event sink, or null
+	 */
+	public void setEventSink(LandingEventSink sink) {
+		event_sink = sink;
+		step_count = 0;
+	}
+
+	/**
+	 * Puts a bean into the slot given by its direction.
+	 * 
+	 * @param bean
+	 *            the landing bean
+	 * @param step
+	 *            the step during which it lands
+	 */
+	private void land(BeanImpl bean, long step) {
+		bean_slots[bean.getDirection()].add(bean.getId());
+		if (event_sink != null) {
+			event_sink.landed(step, bean.getId(), bean.getDirection());
+		}
+	}
+
+	/**
+	 * Takes the next bean from the remaining beans.
+	 * 
+	 * @return the bean, or null if there are none left
+	 */
+	private BeanImpl pollRemaining() {
+		int id = remaining_beans.poll();
+		return id == BeanQueue.NO_BEAN ? null : bean_table[id];
+	}
+
 	/**
 	 * Returns the number of beans remaining that are waiting to get inserted.
 	 * 
@@ -160,8 +236,12 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 			while (slotIterator < bean_slots.length && bean_slots[slotIterator].size() == 0) {
 				slotIterator++; //increment == 1, 2, 3... 
 			}
-			bean_slots[slotIterator].remove();
+			bean_slots[slotIterator].poll();
 		}
+		if (event_sink != null) {
+			event_sink.halved(step_count, true);
+		}
+		publish();
 	}
 
 	/**
@@ -182,8 +262,12 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 			 while (slotIterator >= 0 && bean_slots[slotIterator].size() == 0) {
 				 slotIterator--; //decrement == 4, 3, 2... 
 			 }
-			 bean_slots[slotIterator].remove();
+			 bean_slots[slotIterator].poll();
+		}
+		if (event_sink != null) {
+			event_sink.halved(step_count, false);
 		}
+		publish();
 	}
 
 	/**
@@ -206,18 +290,30 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 			in_flight_beans[i] = null;
 			bean_slots[i].clear();
 		}
+		if (event_sink != null) {
+			event_sink.slotsCleared(step_count);
+		}
 		if (beans == null) {
+			bean_table = new BeanImpl[0];
+			publish();
 			return;
 		} else {
+			//bean ids are the positions in the passed array, downcasting Bean
+			//to BeanImpl objects
+			if (bean_table.length != beans.length) {
+				bean_table = new BeanImpl[beans.length];
+			}
 			for (int i = 0; i < beans.length; i++) {
-				//downcast Bean to BeanImpl object
-				remaining_beans.add((BeanImpl) beans[i]);
+				bean_table[i] = (BeanImpl) beans[i];
+				bean_table[i].setId(i);
 			}
+			remaining_beans.fill(beans.length);
 			if (getRemainingBeanCount() > 0) {
-				in_flight_beans[0] = remaining_beans.poll();
+				in_flight_beans[0] = pollRemaining();
 				in_flight_beans[0].setDirection(0);
 				in_flight_beans[0].setSkill();
 			}
+			publish();
 		}
 		
 	}
@@ -230,20 +326,23 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 	public void repeat() {
 		// TODO: Implement
 		for (int i = 0; i < getSlotCount(); i++) {
-			// scoop all beans in the slots
-			remaining_beans.addAll(bean_slots[i]);
+			// scoop all beans in the slots; this also empties the slot
+			bean_slots[i].drainTo(remaining_beans);
 			// scoop up all in-flight beans in non-null objects
 			if (in_flight_beans[i] != null) {
-				remaining_beans.add(in_flight_beans[i]);
+				remaining_beans.add(in_flight_beans[i].getId());
 				in_flight_beans[i] = null;
 			}
-			bean_slots[i].clear();
+		}
+		if (event_sink != null) {
+			event_sink.slotsCleared(step_count);
 		}
 		if (getRemainingBeanCount() > 0) {
-			in_flight_beans[0] = remaining_beans.poll();
+			in_flight_beans[0] = pollRemaining();
 			in_flight_beans[0].setDirection(0);
 			in_flight_beans[0].setSkill();
 		}
+		publish();
 	}
 	
 	/**
@@ -264,9 +363,24 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 
 	// modifying working code
 	public boolean advanceStep() {
-	
+		boolean status_change = step();
+		publish();
+		if (event_sink != null) {
+			event_sink.stepped(step_count);
+		}
+		return status_change;	
+	}
+
+	/**
+	 * Takes one step without publishing the state or reporting it to the event
+	 * sink, which advanceStep() and advanceSteps() do after their steps.
+	 * 
+	 * @return whether there has been any status change
+	 */
+	private boolean step() {
 		// TODO: Implement
 		boolean status_change = false;
+		step_count++;
 		// start at slot 3
 		// start backwards, 3, 2, 1, 0...
 		for (int i = getSlotCount() - 1; i >= 0; i--) {
@@ -275,22 +389,177 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 			}
 			if (in_flight_beans[i] != null) {
 				if (i == getSlotCount() - 1) {
-					bean_slots[in_flight_beans[i].getDirection()].add(in_flight_beans[i]);
+					land(in_flight_beans[i], step_count);
 				} else {
-					in_flight_beans[i].whichDirection();
+					in_flight_beans[i].whichDirection(i);
 					in_flight_beans[i + 1] = in_flight_beans[i];
 				}
 				status_change = true;
 			}
 		}
 		if (getRemainingBeanCount() > 0) {
-			in_flight_beans[0] = remaining_beans.poll();
+			in_flight_beans[0] = pollRemaining();
 			in_flight_beans[0].setSkill();
 			in_flight_beans[0].setDirection(0);
 		} else {
-			in_flight_beans[0] = remaining_beans.poll();
+			in_flight_beans[0] = null;
+		}
+		return status_change;
+	}
+
+	/**
+	 * Advances the machine k steps, publishing the state and telling the event
+	 * sink about the steps once at the end. In skill mode the state after k steps
+	 * is computed directly, the way runToCompletion() does: beans that land within
+	 * k steps go straight to their slots and the others move down k rows. In luck
+	 * mode the beans must draw their directions in the same order as with
+	 * advanceStep(), so the steps are taken one by one.
+	 * 
+	 * @param k
+	 *            the number of steps, at least 0
+	 * @return the number of those steps that made progress
+	 */
+	@Override
+	public long advanceSteps(long k) {
+		if (k < 0) {
+			throw new IllegalArgumentException("step count must not be negative");
+		}
+		long progress = 0;
+		if (isSkillMode()) {
+			progress = advanceSkillSteps(k);
+		} else {
+			while (progress < k && step()) {
+				progress++;
+			}
+			// The steps left after the machine emptied only count
+			if (progress < k) {
+				step_count += k - progress - 1;
+			}
+		}
+		publish();
+		if (event_sink != null) {
+			event_sink.stepped(step_count);
+		}
+		return progress;
+	}
+
+	/**
+	 * Checks whether the beans in the machine and the next bean to enter are in
+	 * skill mode, so that their paths can be computed without stepping.
+	 */
+	private boolean isSkillMode() {
+		for (int i = 0; i < getSlotCount(); i++) {
+			if (in_flight_beans[i] != null && in_flight_beans[i].isLuck()) {
+				return false;
+			}
+		}
+		return remaining_beans.size() == 0 || !bean_table[remaining_beans.peek()].isLuck();
+	}
+
+	/**
+	 * Moves a skill-mode bean down from row y to row y + rows, making its
+	 * choices at the pegs it passes.
+	 */
+	private void fall(BeanImpl bean, int y, long rows) {
+		for (int row = y; row < y + rows; row++) {
+			bean.whichDirection(row);
+		}
+		in_flight_beans[(int) (y + rows)] = bean;
+	}
+
+	/**
+	 * Takes k steps in skill mode. A bean at row y lands slotCount - y steps from
+	 * now, and the jth bean yet to enter is at row 0 after j + 1 steps, so it
+	 * lands after j + 1 + slotCount steps. Every step makes progress until the
+	 * last bean has landed.
+	 * 
+	 * @param k
+	 *            the number of steps
+	 * @return the number of those steps that made progress
+	 */
+	private long advanceSkillSteps(long k) {
+		int slotCount = getSlotCount();
+		long last_landing = 0;
+		// In-flight beans, lowest first, so no bean moves onto one not yet moved
+		for (int y = slotCount - 1; y >= 0; y--) {
+			BeanImpl bean = in_flight_beans[y];
+			if (bean == null) {
+				continue;
+			}
+			in_flight_beans[y] = null;
+			last_landing = Math.max(last_landing, slotCount - y);
+			if (slotCount - y <= k) {
+				int rights = Math.max(0, Math.min(bean.getSkill(), slotCount - 1 - y));
+				bean.setDirection(bean.getDirection() + rights);
+				land(bean, step_count + slotCount - y);
+			} else {
+				fall(bean, y, k);
+			}
+		}
+		// Beans entering during the k steps
+		int remaining = remaining_beans.size();
+		if (remaining > 0) {
+			last_landing = remaining + slotCount;
+		}
+		for (long j = 0; j < Math.min(k, remaining); j++) {
+			BeanImpl bean = pollRemaining();
+			bean.setSkill();
+			bean.setDirection(0);
+			if (j + 1 + slotCount <= k) {
+				bean.setDirection(Math.max(0, Math.min(bean.getSkillLevel(), slotCount - 1)));
+				land(bean, step_count + j + 1 + slotCount);
+			} else {
+				fall(bean, 0, k - j - 1);
+			}
+		}
+		step_count += k;
+		return Math.min(k, last_landing);
+	}
+
+	/**
+	 * Runs the machine until all beans have landed in slots. In skill mode the
+	 * path of a bean does not depend on anything but its own skill, so instead of
+	 * simulating every step each bean is put directly into the slot it would land
+	 * in. Beans land in the order they entered the machine, so the slots end up
+	 * in the same state (including bean order) as with advanceStep(). In luck mode
+	 * this falls back to stepping.
+	 */
+	@Override
+	public void runToCompletion() {
+		int slotCount = getSlotCount();
+		if (!isSkillMode()) {
+			BeanCounterLogic.super.runToCompletion();
+			return;
+		}
+		// The lowest in-flight bean lands first. A bean at row y still makes
+		// slotCount - 1 - y choices, going right while it has skill left, and
+		// lands slotCount - y steps from now.
+		long last_step = step_count;
+		for (int y = slotCount - 1; y >= 0; y--) {
+			BeanImpl bean = in_flight_beans[y];
+			if (bean != null) {
+				int rights = Math.max(0, Math.min(bean.getSkill(), slotCount - 1 - y));
+				bean.setDirection(bean.getDirection() + rights);
+				last_step = step_count + slotCount - y;
+				land(bean, last_step);
+				in_flight_beans[y] = null;
+			}
+		}
+		// Beans yet to enter start at the top with their full skill; the kth
+		// one enters after k + 1 steps
+		BeanImpl bean;
+		for (long k = 0; (bean = pollRemaining()) != null; k++) {
+			bean.setSkill();
+			bean.setDirection(Math.max(0, Math.min(bean.getSkillLevel(), slotCount - 1)));
+			last_step = step_count + k + 1 + slotCount;
+			land(bean, last_step);
+		}
+		// Stepping ends with one more advanceStep() that reports no change
+		step_count = last_step + 1;
+		publish();
+		if (event_sink != null) {
+			event_sink.stepped(step_count);
 		}
-		return status_change;	
 	}
 
 	/**
@@ -358,9 +627,11 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 	 * Prints usage information.
 	 */
 	public static void showUsage() {
-		System.out.println("Usage: java BeanCounterLogic slot_count bean_count <luck | skill> [debug]");
+		System.out.println("Usage: java BeanCounterLogic slot_count bean_count <luck | skill | bias=p[,p...]> [debug] [log=dir]");
 		System.out.println("Example: java BeanCounterLogic 10 400 luck");
+		System.out.println("Example: java BeanCounterLogic 4 400 bias=0.5,0.7,0.9");
 		System.out.println("Example: java BeanCounterLogic 20 1000 skill debug");
+		System.out.println("Example: java BeanCounterLogic 10 100000 luck log=landings");
 	}
 
 	/**
@@ -370,13 +641,14 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 	 * @param args
 	 *            commandline arguments; see showUsage() for detailed information
 	 */
-	public static void main(String[] args) {
-		boolean debug;
+	public static void main(String[] args) throws IOException {
+		boolean debug = false;
+		String logDir = null;
 		boolean luck;
 		int slotCount = 0;
 		int beanCount = 0;
 
-		if (args.length != 3 && args.length != 4) {
+		if (args.length < 3 || args.length > 5) {
 			showUsage();
 			return;
 		}
@@ -393,27 +665,44 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 			return;
 		}
 
+		PegBias bias = null;
 		if (args[2].equals("luck")) {
 			luck = true;
 		} else if (args[2].equals("skill")) {
 			luck = false;
+		} else if (args[2].startsWith("bias=")) {
+			luck = true;
+			try {
+				bias = PegBias.parse(slotCount, args[2].substring("bias=".length()));
+			} catch (IllegalArgumentException e) {
+				showUsage();
+				return;
+			}
 		} else {
 			showUsage();
 			return;
 		}
 
-		if (args.length == 4 && args[3].equals("debug")) {
-			debug = true;
-		} else {
-			debug = false;
+		for (int i = 3; i < args.length; i++) {
+			if (args[i].equals("debug")) {
+				debug = true;
+			} else if (args[i].startsWith("log=")) {
+				logDir = args[i].substring("log=".length());
+			} else {
+				showUsage();
+				return;
+			}
 		}
 
 		// Create the internal logic
 		BeanCounterLogicImpl logic = new BeanCounterLogicImpl(slotCount);
-		// Create the beans (in luck mode)
-		BeanImpl[] beans = new BeanImpl[beanCount];
-		for (int i = 0; i < beanCount; i++) {
-			beans[i] = new BeanImpl(slotCount, luck, new Random());
+		// Create the beans in bulk
+		BeanImpl[] beans = new BeanFactory(slotCount, System.nanoTime()).createBeans(beanCount, luck, bias);
+		// Record landings if asked to
+		LandingLog log = null;
+		if (logDir != null) {
+			log = new LandingLog(new File(logDir), LandingLog.DEFAULT_SEGMENT_RECORDS);
+			logic.setEventSink(log);
 		}
 		// Initialize the logic with the beans
 		logic.reset(beans);
@@ -423,16 +712,19 @@ public class BeanCounterLogicImpl implements BeanCounterLogic {
 		}
 
 		// Perform the experiment
-		while (true) {
-			if (!logic.advanceStep()) {
-				break;
-			}
-			if (debug) {
+		if (debug) {
+			while (logic.advanceStep()) {
 				System.out.println(logic.toString());
 			}
+		} else {
+			logic.runToCompletion();
 		}
 		// display experimental results
 		System.out.println("Slot bean counts:");
 		System.out.println(logic.getSlotString());
+		if (log != null) {
+			log.close();
+			System.out.println("Landing log written to " + logDir + " (" + logic.step_count + " steps)");
+		}
 	}
 }
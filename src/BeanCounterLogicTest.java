@@ -2,9 +2,14 @@ import static org.junit.Assert.*;
 
 import gov.nasa.jpf.vm.Verify;
 import org.junit.AfterClass;
+import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -39,9 +44,9 @@ public class BeanCounterLogicTest {
 		 * https://github.com/javapathfinder/jpf-core/wiki/Verify-API-of-JPF
 		 */
 
-		slotCount = Verify.getInt(1, 5);
+		slotCount = Verify.getInt(1, bound("beancounter.max_slot_count", 5));
 //		slotCount = Verify.getIntFromList(2);
-		beanCount = Verify.getInt(0, 3);
+		beanCount = Verify.getInt(0, bound("beancounter.max_bean_count", 3));
 //		beanCount = Verify.getIntFromList(1);;
 		isLuck = Verify.getBoolean();
 //		isLuck = Verify.getBoolean(true);
@@ -59,6 +64,19 @@ public class BeanCounterLogicTest {
 				+ "beanCount=" + beanCount + ", isLucky=" + isLuck + "):";
 	}
 
+	/**
+	 * Returns the upper bound for a Verify choice, from the JPF configuration if
+	 * the profile sets it (see BeanCounterReduced.*.jpf).
+	 * 
+	 * @param key          the configuration property
+	 * @param defaultValue the bound if the property is not set
+	 * @return the bound
+	 */
+	private static int bound(String key, int defaultValue) {
+		String value = Verify.getProperty(key);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+
 	@AfterClass
 	public static void tearDown() {
 	}
@@ -307,6 +325,43 @@ public class BeanCounterLogicTest {
 		}
 	}
 
+	/**
+	 * Test case for void runToCompletion(). Preconditions: None. Execution steps:
+	 * Call logic.reset(beans). Call logic.advanceStep() in a loop until it returns
+	 * false (the machine terminates). Call logic.repeat(). Call
+	 * logic.runToCompletion(). Invariants: remaining bean count is 0, in-flight
+	 * bean count is 0, in-slot bean count is beanCount. If the machine is
+	 * operating in skill mode, bean count in each slot is identical after the
+	 * stepped run and the run to completion.
+	 */
+	@Test
+	public void testRunToCompletion() {
+		logic.reset(beans);
+		while (logic.advanceStep()) {
+			// run the first experiment step by step
+		}
+		int[] beansInSlot = new int[slotCount];
+		for (int i = 0; i < slotCount; i++) {
+			beansInSlot[i] = logic.getSlotBeanCount(i);
+		}
+		logic.repeat();
+		logic.runToCompletion();
+		int in_flight_beans = 0;
+		int in_slot_beans = 0;
+		for (int i = 0; i < slotCount; i++) {
+			in_slot_beans += logic.getSlotBeanCount(i);
+			if (logic.getInFlightBeanXPos(i) >= 0) {
+				in_flight_beans += 1;
+			}
+			if (!isLuck) {
+				assertEquals(failString, beansInSlot[i], logic.getSlotBeanCount(i));
+			}
+		}
+		assertEquals(failString, 0, logic.getRemainingBeanCount());
+		assertEquals(failString, 0, in_flight_beans);
+		assertEquals(failString, beanCount, in_slot_beans);
+	}
+
 	/**
 	 * Test case for double getAverageSlotBeanCount(). Preconditions: None.
 	 * Execution steps: Call logic.reset(beans). Call logic.advanceStep() in a loop 
@@ -337,4 +392,163 @@ public class BeanCounterLogicTest {
 		
 	}
 
+	/**
+	 * Returns the slot bean counts of a machine.
+	 */
+	private static int[] slotCounts(BeanCounterLogic machine, int slots) {
+		int[] counts = new int[slots];
+		for (int i = 0; i < slots; i++) {
+			counts[i] = machine.getSlotBeanCount(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Runs a 5-slot luck-mode machine with beanCount beans, halving and repeating
+	 * along the way, with a landing log in dir.
+	 * 
+	 * @return the slot bean counts after each step
+	 */
+	private static int[][] runLogged(File dir, int beans, long seed) throws IOException {
+		int slots = 5;
+		BeanCounterLogicImpl machine = new BeanCounterLogicImpl(slots);
+		LandingLog log = new LandingLog(dir, 16);
+		machine.setEventSink(log);
+		Random rand = new Random(seed);
+		Bean[] population = new Bean[beans];
+		for (int i = 0; i < beans; i++) {
+			population[i] = new BeanImpl(slots, true, rand);
+		}
+		machine.reset(population);
+		int[][] expected = new int[2 * (beans + slots) + 3][];
+		int step = 0;
+		expected[step] = slotCounts(machine, slots);
+		for (int round = 0; round < 2; round++) {
+			while (machine.advanceStep()) {
+				expected[++step] = slotCounts(machine, slots);
+			}
+			expected[++step] = slotCounts(machine, slots);
+			machine.upperHalf();
+			expected[step] = slotCounts(machine, slots);
+			if (round == 0) {
+				machine.repeat();
+				expected[step] = slotCounts(machine, slots);
+			}
+		}
+		log.close();
+		return Arrays.copyOf(expected, step + 1);
+	}
+
+	/**
+	 * Test case for LandingLog.replay(). Preconditions: not running under JPF.
+	 * Execution steps: Write a long logged run into a directory, then a short
+	 * one into the same directory. Invariants: replay() at every step returns
+	 * the slot bean counts of the run at that step, a slot count too small for
+	 * the log is rejected with IllegalArgumentException, and after the short run
+	 * the segments of the long run are gone.
+	 */
+	@Test
+	public void testLandingLogReplay() throws IOException {
+		Assume.assumeFalse(Verify.isRunningInJPF());
+		File dir = Files.createTempDirectory("landing").toFile();
+		try {
+			int[][] longRun = runLogged(dir, 300, 1);
+			for (int step = 0; step < longRun.length; step++) {
+				assertArrayEquals("long run step " + step, longRun[step], LandingLog.replay(dir, 5, step));
+			}
+			for (int slots = 1; slots < 5; slots++) {
+				try {
+					LandingLog.replay(dir, slots, longRun.length - 1);
+					fail("replayed a 5-slot log with " + slots + " slots");
+				} catch (IllegalArgumentException e) {
+					// expected
+				}
+			}
+			int[][] shortRun = runLogged(dir, 10, 2);
+			for (int step = 0; step < shortRun.length; step++) {
+				assertArrayEquals("short run step " + step, shortRun[step], LandingLog.replay(dir, 5, step));
+			}
+			assertArrayEquals(shortRun[shortRun.length - 1], LandingLog.replay(dir, 5, Long.MAX_VALUE));
+		} finally {
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Returns beans whose Randoms are seeded from seed, so that two calls give
+	 * two populations that behave the same.
+	 */
+	static Bean[] seededBeans(int slots, int beans, boolean luck, long seed) {
+		Bean[] population = new Bean[beans];
+		for (int i = 0; i < beans; i++) {
+			population[i] = new BeanImpl(slots, luck, new Random(seed * 1000 + i));
+		}
+		return population;
+	}
+
+	/**
+	 * Describes the in-flight positions, slot bean counts and remaining bean count
+	 * of a machine.
+	 */
+	static String describe(BeanCounterLogic machine, int slots) {
+		StringBuilder bld = new StringBuilder();
+		for (int i = 0; i < slots; i++) {
+			bld.append(machine.getInFlightBeanXPos(i)).append('/').append(machine.getSlotBeanCount(i)).append(' ');
+		}
+		return bld.append("remaining ").append(machine.getRemainingBeanCount()).toString();
+	}
+
+	/**
+	 * Test case for long advanceSteps(long k). Preconditions: not running under
+	 * JPF. Execution steps: For 1-6 slots, 0-12 beans and both modes, run two
+	 * machines with the same beans through the same random operations: k = 0,
+	 * k up to twice the steps the machine can take, upperHalf(), lowerHalf() and
+	 * repeat(); one machine calls advanceSteps(k), the other advanceStep() k
+	 * times. Invariants: advanceSteps(k) returns the number of advanceStep()
+	 * calls that returned true, and both machines are in the same state.
+	 */
+	@Test
+	public void testAdvanceSteps() {
+		Assume.assumeFalse(Verify.isRunningInJPF());
+		Random rand = new Random(50);
+		for (int slots = 1; slots <= 6; slots++) {
+			for (int beans = 0; beans <= 12; beans++) {
+				for (boolean luck : new boolean[] {false, true}) {
+					String config = "(slots=" + slots + ", beans=" + beans + ", luck=" + luck + ")";
+					long seed = rand.nextLong();
+					BeanCounterLogicImpl batched = new BeanCounterLogicImpl(slots);
+					BeanCounterLogicImpl stepped = new BeanCounterLogicImpl(slots);
+					batched.reset(seededBeans(slots, beans, luck, seed));
+					stepped.reset(seededBeans(slots, beans, luck, seed));
+					for (int op = 0; op < 20; op++) {
+						int choice = rand.nextInt(10);
+						if (choice < 7) {
+							long k = choice == 0 ? 0 : rand.nextInt(2 * (beans + slots) + 2);
+							long progress = 0;
+							for (long i = 0; i < k; i++) {
+								if (stepped.advanceStep()) {
+									progress++;
+								}
+							}
+							assertEquals(config + " k=" + k, progress, batched.advanceSteps(k));
+						} else if (choice == 7) {
+							batched.upperHalf();
+							stepped.upperHalf();
+						} else if (choice == 8) {
+							batched.lowerHalf();
+							stepped.lowerHalf();
+						} else {
+							batched.repeat();
+							stepped.repeat();
+						}
+						assertEquals(config, describe(stepped, slots), describe(batched, slots));
+					}
+				}
+			}
+		}
+	}
+
 }
@@ -0,0 +1,215 @@
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * BeanFactory: Creates bean populations in bulk.
+ *
+ * <p>
+ * A BeanImpl draws its skill level as Math.round(rand.nextGaussian() *
+ * SKILL_STDEV + SKILL_AVERAGE), which costs a nextGaussian() (a rejection loop
+ * with a log and a sqrt) per bean. The factory instead computes the discrete
+ * distribution of rounded skill levels for the slot count once, as an alias
+ * table, after which a skill level costs one 64-bit random draw, one multiply
+ * and one compare. Skill levels further than SUPPORT_STDEVS standard
+ * deviations from the average are left out; their total probability is below
+ * 1e-18.
+ *
+ * <p>
+ * Populations are filled in parallel chunks of CHUNK_SIZE beans. Chunk i uses
+ * its own random stream derived from the factory seed and i, so a population
+ * only depends on the seed, not on the number of threads. All luck-mode beans
+ * of a chunk share one Random, seeded from a split of the chunk's stream,
+ * instead of calling new Random() per bean, which would contend on Random's
+ * global seed uniquifier. Random is thread-safe, so beans stepped from several
+ * threads (as in ConcurrentBeanCounterLogic) still work, but then they contend
+ * on the shared Random and the draws each bean gets depend on the thread
+ * schedule; a run is only reproducible when its beans are stepped from one
+ * thread.
+ */
+
+public class BeanFactory {
+	static final int CHUNK_SIZE = 1 << 16;
+	private static final double SUPPORT_STDEVS = 9;
+
+	private final int slotCount;
+	private final long seed;
+	private final int minSkill;			// Skill level of alias table column 0
+	private final int[] thresholds;		// 31-bit probability of keeping each column
+	private final int[] aliases;		// Column to use otherwise
+
+	/**
+	 * Constructor - precomputes the skill distribution for the slot count.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @param seed      the seed all populations are derived from
+	 */
+	public BeanFactory(int slotCount, long seed) {
+		this.slotCount = slotCount;
+		this.seed = seed;
+		double average = slotCount * 0.5;
+		double stdev = Math.sqrt(slotCount * 0.5 * (1 - 0.5));
+		minSkill = (int) Math.floor(average - SUPPORT_STDEVS * stdev);
+		int maxSkill = (int) Math.ceil(average + SUPPORT_STDEVS * stdev);
+		double[] p = new double[maxSkill - minSkill + 1];
+		double total = 0;
+		for (int k = 0; k < p.length; k++) {
+			// Math.round rounds halves up, so level s covers [s - 0.5, s + 0.5)
+			double lo = (minSkill + k - 0.5 - average) / stdev;
+			double hi = (minSkill + k + 0.5 - average) / stdev;
+			p[k] = normalCdf(hi) - normalCdf(lo);
+			total += p[k];
+		}
+		thresholds = new int[p.length];
+		aliases = new int[p.length];
+		buildAliasTable(p, total);
+	}
+
+	/**
+	 * Standard normal CDF via the complementary error function (Numerical
+	 * Recipes erfcc, fractional error below 1.2e-7).
+	 */
+	static double normalCdf(double x) {
+		double z = Math.abs(x) / Math.sqrt(2);
+		double t = 1 / (1 + 0.5 * z);
+		double erfc = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+				+ t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+				+ t * (-0.82215223 + t * 0.17087277)))))))));
+		return x >= 0 ? 1 - 0.5 * erfc : 0.5 * erfc;
+	}
+
+	/**
+	 * Builds the alias table with Vose's method.
+	 */
+	private void buildAliasTable(double[] p, double total) {
+		int n = p.length;
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0;
+		int largeCount = 0;
+		for (int k = 0; k < n; k++) {
+			scaled[k] = p[k] / total * n;
+			if (scaled[k] < 1) {
+				small[smallCount++] = k;
+			} else {
+				large[largeCount++] = k;
+			}
+		}
+		while (smallCount > 0 && largeCount > 0) {
+			int s = small[--smallCount];
+			int l = large[--largeCount];
+			thresholds[s] = (int) Math.round(scaled[s] * Integer.MAX_VALUE);
+			aliases[s] = l;
+			scaled[l] -= 1 - scaled[s];
+			if (scaled[l] < 1) {
+				small[smallCount++] = l;
+			} else {
+				large[largeCount++] = l;
+			}
+		}
+		// Whatever is left is (up to rounding) exactly 1
+		while (largeCount > 0) {
+			int l = large[--largeCount];
+			thresholds[l] = Integer.MAX_VALUE;
+			aliases[l] = l;
+		}
+		while (smallCount > 0) {
+			int s = small[--smallCount];
+			thresholds[s] = Integer.MAX_VALUE;
+			aliases[s] = s;
+		}
+	}
+
+	/**
+	 * Draws one skill level.
+	 *
+	 * @param rnd the random stream
+	 * @return the skill level
+	 */
+	int nextSkill(SplittableRandom rnd) {
+		long bits = rnd.nextLong();
+		int column = (int) (((bits >>> 32) * thresholds.length) >>> 32);
+		int coin = (int) bits >>> 1;
+		return minSkill + (coin < thresholds[column] ? column : aliases[column]);
+	}
+
+	/**
+	 * The SplittableRandom 64-bit finalizer (Stafford variant 13).
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private SplittableRandom chunkStream(int chunk) {
+		// Anything additive in seed and chunk makes chunk c of seed s the same
+		// stream as chunk c - 1 of seed s + 1, so scramble the seed before the
+		// chunk is folded in
+		return new SplittableRandom(mix(mix(seed) ^ chunk));
+	}
+
+	private static int chunkCount(int count) {
+		return (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+	}
+
+	/**
+	 * Fills an array with the skill levels of a population. This is the compact
+	 * form used by engines that do not need BeanImpl objects.
+	 *
+	 * @param count the number of beans
+	 * @return the skill level of each bean
+	 */
+	public int[] createSkills(int count) {
+		int[] skills = new int[count];
+		fillSkills(0, skills, count);
+		return skills;
+	}
+
+	/**
+	 * Fills an array with the skill levels of part of a population, for
+	 * populations too large for one array. Bean from + i gets the same skill
+	 * level as in createSkills() of the whole population.
+	 *
+	 * @param from   the first bean, a multiple of CHUNK_SIZE
+	 * @param skills receives the skill levels
+	 * @param count  the number of beans
+	 */
+	void fillSkills(long from, int[] skills, int count) {
+		if (from % CHUNK_SIZE != 0) {
+			throw new IllegalArgumentException("from must be a multiple of " + CHUNK_SIZE);
+		}
+		int firstChunk = (int) (from / CHUNK_SIZE);
+		IntStream.range(0, chunkCount(count)).parallel().forEach(chunk -> {
+			SplittableRandom rnd = chunkStream(firstChunk + chunk);
+			int end = Math.min(count, (chunk + 1) * CHUNK_SIZE);
+			for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+				skills[i] = nextSkill(rnd);
+			}
+		});
+	}
+
+	/**
+	 * Creates a population of BeanImpl objects. Bean i has skill level
+	 * createSkills(count)[i].
+	 *
+	 * @param count  the number of beans
+	 * @param isLuck whether the beans are in luck mode
+	 * @param bias   the peg bias for biased mode, or null
+	 * @return the beans
+	 */
+	public BeanImpl[] createBeans(int count, boolean isLuck, PegBias bias) {
+		BeanImpl[] beans = new BeanImpl[count];
+		IntStream.range(0, chunkCount(count)).parallel().forEach(chunk -> {
+			SplittableRandom rnd = chunkStream(chunk);
+			int end = Math.min(count, (chunk + 1) * CHUNK_SIZE);
+			// A split, so the shared Random does not replay the skill draws of rnd
+			Random shared = new Random(chunkStream(chunk).split().nextLong());
+			for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+				beans[i] = new BeanImpl(slotCount, isLuck, bias, shared, nextSkill(rnd));
+			}
+		});
+		return beans;
+	}
+}
@@ -0,0 +1,59 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Unit tests for BeanFactory.
+ */
+
+public class BeanFactoryTest {
+
+	/**
+	 * Test case for the random streams of the population chunks. Preconditions:
+	 * none. Execution steps: Create the skill levels of three-chunk populations
+	 * for neighbouring seeds. Invariants: no chunk of one population equals any
+	 * chunk of another population or another chunk of its own.
+	 */
+	@Test
+	public void testChunkStreamsDoNotOverlap() {
+		int chunks = 3;
+		int[][] populations = new int[4][];
+		for (int s = 0; s < populations.length; s++) {
+			populations[s] = new BeanFactory(10, 5 + s).createSkills(chunks * BeanFactory.CHUNK_SIZE);
+		}
+		for (int s = 0; s < populations.length; s++) {
+			for (int c = 0; c < chunks; c++) {
+				for (int t = s; t < populations.length; t++) {
+					for (int d = 0; d < chunks; d++) {
+						if (s == t && c == d) {
+							continue;
+						}
+						assertFalse("seed " + (5 + s) + " chunk " + c + " equals seed " + (5 + t) + " chunk " + d,
+								Arrays.equals(chunk(populations[s], c), chunk(populations[t], d)));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test case for reproducibility. Preconditions: none. Execution steps: Create
+	 * a population twice with the same seed, and once in two parts with
+	 * fillSkills(). Invariants: all three are the same.
+	 */
+	@Test
+	public void testSameSeedSamePopulation() {
+		int count = 2 * BeanFactory.CHUNK_SIZE + 100;
+		int[] skills = new BeanFactory(20, 7).createSkills(count);
+		assertArrayEquals(skills, new BeanFactory(20, 7).createSkills(count));
+		int[] tail = new int[count - BeanFactory.CHUNK_SIZE];
+		new BeanFactory(20, 7).fillSkills(BeanFactory.CHUNK_SIZE, tail, tail.length);
+		assertArrayEquals(Arrays.copyOfRange(skills, BeanFactory.CHUNK_SIZE, count), tail);
+	}
+
+	private static int[] chunk(int[] skills, int c) {
+		return Arrays.copyOfRange(skills, c * BeanFactory.CHUNK_SIZE, (c + 1) * BeanFactory.CHUNK_SIZE);
+	}
+}
@@ -30,17 +30,29 @@ import java.util.Random;
  * skill level. The formula to calculate the direction is: rand.nextInt(2). If
  * the return value is 0, the bean goes left. If the return value is 1, the bean
  * goes right.
+ *
+ * <p>
+ * A bean created with a PegBias is in biased mode: like luck mode, but the
+ * probability of going right depends on the peg (see PegBias).
  */
 
 public class BeanImpl implements Bean {
 	// TODO: Add member methods and variables as needed
 	private boolean isLuck;
+	private PegBias bias;
+	// With cg.enumerate_random, JPF branches on the value of every nextInt() and
+	// the generator's own state never decides anything, so it is not hashed
+	@FilterField(condition = "cg.enumerate_random")
 	private Random rand;
+	// Constants of the machine, only used while constructing the bean
+	@FilterField
 	private double skill_average;
+	@FilterField
 	private double skill_stdev;
 	private int skill_level;
 	private int between_skill_levels;
 	private int direction;
+	private int id;
 
 	/**
 	 * Constructor - creates a bean in either luck mode or skill mode.
@@ -65,6 +77,47 @@ public class BeanImpl implements Bean {
 	    between_skill_levels = skill_level;
 	}
 
+	/**
+	 * Constructor - creates a bean in biased mode.
+	 * 
+	 * @param slotCount
+	 *            the number of slots in the machine
+	 * @param bias
+	 *            the probability of going right at each peg
+	 * @param rand
+	 *            the random number generator
+	 */
+	BeanImpl(int slotCount, PegBias bias, Random rand) {
+		this(slotCount, true, rand);
+		this.bias = bias;
+	}
+
+	/**
+	 * Constructor - creates a bean with an already drawn skill level. Used by
+	 * BeanFactory, which samples skill levels in bulk.
+	 * 
+	 * @param slotCount
+	 *            the number of slots in the machine
+	 * @param isLuck
+	 *            whether the bean is in luck mode
+	 * @param bias
+	 *            the probability of going right at each peg, or null
+	 * @param rand
+	 *            the random number generator
+	 * @param skillLevel
+	 *            the skill level
+	 */
+	BeanImpl(int slotCount, boolean isLuck, PegBias bias, Random rand, int skillLevel) {
+		this.isLuck = isLuck || bias != null;
+		this.bias = bias;
+		this.rand = rand;
+		this.direction = 0;
+		skill_average = (double) slotCount * 0.5;
+		skill_stdev = (double) Math.sqrt(slotCount * 0.5 * (1 - 0.5));
+		skill_level = skillLevel;
+		between_skill_levels = skill_level;
+	}
+
 	// setter, getter
 	public void setDirection(int dir) {
 		this.direction = dir;
@@ -74,6 +127,14 @@ public class BeanImpl implements Bean {
 		return this.direction;
 	}
 
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public int getId() {
+		return id;
+	}
+
 	public void setSkill() {
 		between_skill_levels = skill_level;
 	}
@@ -81,13 +142,32 @@ public class BeanImpl implements Bean {
 	public int getSkill() {
 		return between_skill_levels;
 	}
+
+	public int getSkillLevel() {
+		return skill_level;
+	}
+
+	public boolean isLuck() {
+		return isLuck;
+	}
+
+	public boolean isBiased() {
+		return bias != null;
+	}
 	
 	/**
 	 * Formula for choosing which direction to travel based on luck or not or skill_level
-	 * Go right if rand.nextInt(2) == 1
+	 * Go right if rand.nextInt(2) == 1, or if the biased peg says so
+	 * 
+	 * @param yPos
+	 *            the y-coordinate (row) of the peg the bean is at
 	 * */
-	public void whichDirection() {
-		if (isLuck) {
+	public void whichDirection(int yPos) {
+		if (bias != null) {
+			if (bias.goesRight(direction, yPos, rand)) {
+				direction++;
+			}
+		} else if (isLuck) {
 			if (rand.nextInt(2) == 1) {
 				direction++;
 			}
@@ -0,0 +1,159 @@
+import java.util.Arrays;
+
+/**
+ * BeanQueue: A FIFO queue of beans backed by a circular array. Unlike a
+ * LinkedList, adding a bean does not allocate a node, and the storage is kept
+ * and reused when the queue is cleared or drained. Once the array has grown to
+ * the size of the bean population, moving beans around the machine (reset,
+ * repeat, landing in a slot) does not allocate at all.
+ *
+ * <p>
+ * Beans are stored as int ids that index the machine's bean table, so a queued
+ * bean costs 4 bytes and the array holds no pointers for the GC to trace. The
+ * beans themselves, with their skills, stay in the table, so the identity of
+ * every bean survives moving between queues.
+ *
+ * <p>
+ * Slots that hold no bean are always 0, and an emptied queue starts over at
+ * index 0, so ids left behind by removed beans never make otherwise equal JPF
+ * states hash differently.
+ */
+
+class BeanQueue {
+	static final int NO_BEAN = -1;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int[] elements;
+	private int head;	// Index of the first bean
+	private int size;	// Number of beans in the queue
+
+	BeanQueue() {
+		elements = new int[INITIAL_CAPACITY];
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Makes sure the queue can hold capacity beans without growing.
+	 *
+	 * @param capacity the number of beans the queue must be able to hold
+	 */
+	void ensureCapacity(int capacity) {
+		if (capacity <= elements.length) {
+			return;
+		}
+		int newLength = Math.max(capacity, elements.length * 2);
+		int[] newElements = new int[newLength];
+		copyRange(0, newElements, 0, size);
+		elements = newElements;
+		head = 0;
+	}
+
+	void add(int bean) {
+		ensureCapacity(size + 1);
+		int tail = head + size;
+		if (tail >= elements.length) {
+			tail -= elements.length;
+		}
+		elements[tail] = bean;
+		size++;
+	}
+
+	/**
+	 * Returns the first bean without removing it.
+	 *
+	 * @return the id of the first bean, or NO_BEAN if the queue is empty
+	 */
+	int peek() {
+		return size == 0 ? NO_BEAN : elements[head];
+	}
+
+	/**
+	 * Removes the first bean.
+	 *
+	 * @return the id of the first bean, or NO_BEAN if the queue is empty
+	 */
+	int poll() {
+		if (size == 0) {
+			return NO_BEAN;
+		}
+		int bean = elements[head];
+		elements[head] = 0;
+		head++;
+		size--;
+		if (head == elements.length || size == 0) {
+			head = 0;
+		}
+		return bean;
+	}
+
+	/**
+	 * Removes all beans. The storage is kept for reuse; the slots that held beans
+	 * are zeroed so that the state hash does not depend on past contents.
+	 */
+	void clear() {
+		int firstPart = Math.min(size, elements.length - head);
+		Arrays.fill(elements, head, head + firstPart, 0);
+		Arrays.fill(elements, 0, size - firstPart, 0);
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * Replaces the contents of the queue with the beans 0 to count - 1, in order.
+	 *
+	 * @param count the number of beans in the bean table
+	 */
+	void fill(int count) {
+		clear();
+		ensureCapacity(count);
+		for (int i = 0; i < count; i++) {
+			elements[i] = i;
+		}
+		size = count;
+	}
+
+	/**
+	 * Moves all beans in this queue to the end of dst, keeping their order, and
+	 * leaves this queue empty. The beans are moved with at most four array
+	 * copies.
+	 *
+	 * @param dst the queue to append the beans to
+	 */
+	void drainTo(BeanQueue dst) {
+		if (size == 0) {
+			return;
+		}
+		dst.ensureCapacity(dst.size + size);
+		int dstTail = dst.head + dst.size;
+		if (dstTail >= dst.elements.length) {
+			dstTail -= dst.elements.length;
+		}
+		int firstPart = Math.min(size, dst.elements.length - dstTail);
+		// Copy into the tail segment of dst, then wrap around to its start
+		copyRange(0, dst.elements, dstTail, firstPart);
+		copyRange(firstPart, dst.elements, 0, size - firstPart);
+		dst.size += size;
+		clear();
+	}
+
+	/**
+	 * Copies count beans starting at logical position from in this queue into
+	 * dst starting at dstPos.
+	 */
+	private void copyRange(int from, int[] dst, int dstPos, int count) {
+		if (count <= 0) {
+			return;
+		}
+		int start = head + from;
+		if (start >= elements.length) {
+			start -= elements.length;
+		}
+		int firstPart = Math.min(count, elements.length - start);
+		System.arraycopy(elements, start, dst, dstPos, firstPart);
+		System.arraycopy(elements, 0, dst, dstPos + firstPart, count - firstPart);
+	}
+}
@@ -0,0 +1,101 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Unit tests for BeanQueue.
+ */
+
+public class BeanQueueTest {
+
+	/**
+	 * Polls every bean id out of a queue.
+	 */
+	private static int[] pollAll(BeanQueue queue) {
+		int[] ids = new int[queue.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = queue.poll();
+		}
+		assertEquals(BeanQueue.NO_BEAN, queue.poll());
+		return ids;
+	}
+
+	/**
+	 * Test case for BeanQueue. Preconditions: none. Execution steps: Wrap two
+	 * queues around the end of their arrays, grow one while wrapped, drain one
+	 * into the other, and run random operations against an ArrayDeque.
+	 * Invariants: the queues hold the same ids in the same order as the
+	 * reference.
+	 */
+	@Test
+	public void testBeanQueue() {
+		// Wrap both queues: 12 in, 10 out, 8 more in wraps past index 16
+		BeanQueue src = new BeanQueue();
+		BeanQueue dst = new BeanQueue();
+		for (BeanQueue q : new BeanQueue[] {src, dst}) {
+			for (int i = 0; i < 12; i++) {
+				q.add(i);
+			}
+			for (int i = 0; i < 10; i++) {
+				assertEquals(i, q.poll());
+			}
+			for (int i = 12; i < 20; i++) {
+				q.add(i);
+			}
+		}
+		// Grow src while it is wrapped
+		for (int i = 20; i < 40; i++) {
+			src.add(i);
+		}
+		assertEquals(10, src.peek());
+		// Drain into the wrapped dst, which must grow and wrap the copy
+		src.drainTo(dst);
+		assertEquals(0, src.size());
+		assertEquals(BeanQueue.NO_BEAN, src.peek());
+		int[] expected = new int[40];
+		for (int i = 0; i < 10; i++) {
+			expected[i] = 10 + i;
+			expected[10 + i] = 10 + i;
+		}
+		for (int i = 20; i < 40; i++) {
+			expected[i] = i;
+		}
+		assertArrayEquals(expected, pollAll(dst));
+		// fill() replaces the contents with 0..count-1
+		dst.add(99);
+		dst.fill(5);
+		assertArrayEquals(new int[] {0, 1, 2, 3, 4}, pollAll(dst));
+
+		Random rand = new Random(28);
+		BeanQueue queue = new BeanQueue();
+		BeanQueue other = new BeanQueue();
+		ArrayDeque<Integer> reference = new ArrayDeque<>();
+		ArrayDeque<Integer> otherReference = new ArrayDeque<>();
+		for (int op = 0; op < 100000; op++) {
+			int choice = rand.nextInt(20);
+			if (choice < 9) {
+				queue.add(op);
+				reference.add(op);
+			} else if (choice < 17) {
+				Integer head = reference.poll();
+				assertEquals(head == null ? BeanQueue.NO_BEAN : head.intValue(), queue.poll());
+			} else if (choice == 17) {
+				other.add(op);
+				otherReference.add(op);
+			} else if (choice == 18) {
+				other.drainTo(queue);
+				reference.addAll(otherReference);
+				otherReference.clear();
+			} else if (rand.nextInt(20) == 0) {
+				queue.clear();
+				reference.clear();
+			}
+			assertEquals(reference.size(), queue.size());
+			Integer head = reference.peek();
+			assertEquals(head == null ? BeanQueue.NO_BEAN : head.intValue(), queue.peek());
+		}
+	}
+}
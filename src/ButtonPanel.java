@@ -19,6 +19,8 @@ public class ButtonPanel extends JPanel {
 	
 	private ResetButton clear;
 
+	private TimelineSlider timeline;
+
 	/**
 	 * Constructor - add all of the buttons to the ButtonPanel.
 	 * 
@@ -38,6 +40,7 @@ public class ButtonPanel extends JPanel {
 		upper = new UpperHalfButton(m);
 		repeat = new RepeatButton(m);
 		clear = new ResetButton(m);
+		timeline = new TimelineSlider(m);
 		setLayout(new FlowLayout());
 
 		// Add all of the buttons
@@ -50,6 +53,7 @@ public class ButtonPanel extends JPanel {
 		add(upper);
 		add(repeat);
 		add(clear);
+		add(timeline);
 	}
 
 }
@@ -0,0 +1,282 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConcurrentBeanCounterLogic: A bean counter that several producer threads can
+ * feed at once.
+ *
+ * <p>
+ * Producers either add beans to the machine's ingest queue, to be dropped one
+ * per step by advanceStep(), or drop a bean themselves with drop(), which walks
+ * the bean through every peg row on the calling thread and lands it. A bean's
+ * path only depends on the bean, so drop() gives the same distribution as
+ * stepping, and producers that drop their own beans do not wait for each
+ * other: the ingest queue is a lock-free ConcurrentLinkedQueue, each slot count
+ * is a LongAdder, and landed beans are kept in STRIPES lock-free queues picked
+ * by thread so that producers rarely touch the same one.
+ *
+ * <p>
+ * addBean(), addBeans(), drop() and the getters may be called from any thread
+ * at any time. advanceStep(), runToCompletion(), upperHalf(), lowerHalf(),
+ * reset() and repeat() belong to a single controlling thread, and the halving
+ * operations, reset() and repeat() need the producers to be quiet. Counts read
+ * while producers are active are each up to date but not necessarily from the
+ * same instant; at quiescent points remaining + in-flight + in-slot beans add up
+ * to every bean given to the machine. The in-flight positions are published
+ * through an AtomicIntegerArray at the end of each step, so another thread
+ * sees every row as of some completed step, though like the counts, not all
+ * rows need be from the same step.
+ */
+
+public class ConcurrentBeanCounterLogic implements BeanCounterLogic {
+	static final int STRIPES = 64;	// Power of two; consecutive thread ids get different stripes
+
+	private final int slotCount;
+	private final ConcurrentLinkedQueue<BeanImpl> ingest = new ConcurrentLinkedQueue<>();
+	private final LongAdder queued = new LongAdder();
+	private final BeanImpl[] inFlight;		// Only touched by the controlling thread
+	private final AtomicIntegerArray inFlightXPos;	// x-position of inFlight[y], for the getters
+	private final LongAdder[] slotCounts;
+	private final List<ConcurrentLinkedQueue<BeanImpl>> landed;	// Landed beans, slot given by their direction
+
+	/**
+	 * Constructor - creates an empty machine.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 */
+	public ConcurrentBeanCounterLogic(int slotCount) {
+		this.slotCount = slotCount;
+		inFlight = new BeanImpl[slotCount];
+		inFlightXPos = new AtomicIntegerArray(slotCount);
+		for (int y = 0; y < slotCount; y++) {
+			inFlightXPos.set(y, NO_BEAN_IN_YPOS);
+		}
+		slotCounts = new LongAdder[slotCount];
+		for (int i = 0; i < slotCount; i++) {
+			slotCounts[i] = new LongAdder();
+		}
+		landed = new ArrayList<>(STRIPES);
+		for (int s = 0; s < STRIPES; s++) {
+			landed.add(new ConcurrentLinkedQueue<>());
+		}
+	}
+
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	private void land(BeanImpl bean) {
+		landed.get((int) Thread.currentThread().getId() & (STRIPES - 1)).offer(bean);
+		slotCounts[bean.getDirection()].increment();
+	}
+
+	/**
+	 * Adds a bean to the ingest queue. It enters the machine at the top in a
+	 * later step. Safe to call from any thread.
+	 *
+	 * @param bean the bean to add
+	 */
+	public void addBean(Bean bean) {
+		ingest.offer((BeanImpl) bean);
+		queued.increment();
+	}
+
+	/**
+	 * Adds beans to the ingest queue. Safe to call from any thread.
+	 *
+	 * @param beans the beans to add
+	 */
+	public void addBeans(Bean[] beans) {
+		for (Bean bean : beans) {
+			addBean(bean);
+		}
+	}
+
+	/**
+	 * Drops a bean through the whole machine on the calling thread and lands it
+	 * in its slot. Safe to call from any thread.
+	 *
+	 * @param bean the bean to drop
+	 */
+	public void drop(Bean bean) {
+		BeanImpl b = (BeanImpl) bean;
+		b.setSkill();
+		b.setDirection(0);
+		for (int y = 0; y < slotCount - 1; y++) {
+			b.whichDirection(y);
+		}
+		land(b);
+	}
+
+	private BeanImpl pollIngest() {
+		BeanImpl bean = ingest.poll();
+		if (bean != null) {
+			queued.decrement();
+		}
+		return bean;
+	}
+
+	public int getRemainingBeanCount() {
+		return (int) Math.max(0, queued.sum());
+	}
+
+	public int getInFlightBeanXPos(int yPos) {
+		return inFlightXPos.get(yPos);
+	}
+
+	/**
+	 * Publishes the positions of the in-flight beans to the getters. Only the
+	 * controlling thread may call this, after it has moved the beans.
+	 */
+	private void publishInFlight() {
+		for (int y = 0; y < slotCount; y++) {
+			BeanImpl bean = inFlight[y];
+			inFlightXPos.lazySet(y, bean != null ? bean.getDirection() : NO_BEAN_IN_YPOS);
+		}
+	}
+
+	public int getSlotBeanCount(int i) {
+		return (int) slotCounts[i].sum();
+	}
+
+	public double getAverageSlotBeanCount() {
+		double sum = 0;
+		long count = 0;
+		for (int i = 0; i < slotCount; i++) {
+			long c = slotCounts[i].sum();
+			sum += (double) i * c;
+			count += c;
+		}
+		return count == 0 ? 0 : sum / count;
+	}
+
+	/**
+	 * Removes half of the beans in the slots (rounded down), from the low end if
+	 * upper is true and from the high end otherwise. Producers must be quiet.
+	 * The counts removed from each slot are exact, but which beans of a slot go
+	 * is not FIFO: the stripes are scanned in stripe order, so the first beans
+	 * found in the lowest stripes are removed, whenever they landed.
+	 */
+	private void halve(boolean upper) {
+		long[] remove = new long[slotCount];
+		long total = 0;
+		for (int i = 0; i < slotCount; i++) {
+			total += slotCounts[i].sum();
+		}
+		long left = total / 2;
+		for (int k = 0; k < slotCount && left > 0; k++) {
+			int i = upper ? k : slotCount - 1 - k;
+			remove[i] = Math.min(left, slotCounts[i].sum());
+			left -= remove[i];
+		}
+		for (ConcurrentLinkedQueue<BeanImpl> stripe : landed) {
+			stripe.removeIf(bean -> {
+				int slot = bean.getDirection();
+				if (remove[slot] == 0) {
+					return false;
+				}
+				remove[slot]--;
+				slotCounts[slot].decrement();
+				return true;
+			});
+		}
+	}
+
+	public void upperHalf() {
+		halve(true);
+	}
+
+	public void lowerHalf() {
+		halve(false);
+	}
+
+	private void clearSlots() {
+		for (int i = 0; i < slotCount; i++) {
+			slotCounts[i].reset();
+		}
+		for (ConcurrentLinkedQueue<BeanImpl> stripe : landed) {
+			stripe.clear();
+		}
+	}
+
+	private void startFirstBean() {
+		BeanImpl bean = pollIngest();
+		if (bean != null) {
+			bean.setDirection(0);
+			bean.setSkill();
+		}
+		inFlight[0] = bean;
+	}
+
+	/**
+	 * Empties the machine and puts the beans in the ingest queue, with the first
+	 * one at the top. Producers must be quiet.
+	 *
+	 * @param beans the beans to add, or null
+	 */
+	public void reset(Bean[] beans) {
+		ingest.clear();
+		queued.reset();
+		clearSlots();
+		for (int y = 0; y < slotCount; y++) {
+			inFlight[y] = null;
+		}
+		if (beans != null) {
+			addBeans(beans);
+		}
+		startFirstBean();
+		publishInFlight();
+	}
+
+	/**
+	 * Moves all landed and in-flight beans back into the ingest queue, with one
+	 * at the top. Producers must be quiet.
+	 */
+	public void repeat() {
+		for (ConcurrentLinkedQueue<BeanImpl> stripe : landed) {
+			for (BeanImpl bean : stripe) {
+				addBean(bean);
+			}
+		}
+		clearSlots();
+		for (int y = 0; y < slotCount; y++) {
+			if (inFlight[y] != null) {
+				addBean(inFlight[y]);
+				inFlight[y] = null;
+			}
+		}
+		startFirstBean();
+		publishInFlight();
+	}
+
+	/**
+	 * Advances the in-flight beans one row, lands the bottom one and takes the
+	 * next bean from the ingest queue. Only the controlling thread may step.
+	 *
+	 * @return whether any bean moved or entered the machine
+	 */
+	public boolean advanceStep() {
+		boolean moved = false;
+		if (inFlight[slotCount - 1] != null) {
+			land(inFlight[slotCount - 1]);
+			inFlight[slotCount - 1] = null;
+			moved = true;
+		}
+		for (int y = slotCount - 2; y >= 0; y--) {
+			if (inFlight[y] != null) {
+				inFlight[y].whichDirection(y);
+				inFlight[y + 1] = inFlight[y];
+				inFlight[y] = null;
+				moved = true;
+			}
+		}
+		startFirstBean();
+		publishInFlight();
+		// Producers can add beans to an empty machine, so a bean entering counts
+		// as a change too
+		return moved || inFlight[0] != null;
+	}
+}
@@ -0,0 +1,86 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for ConcurrentBeanCounterLogic.
+ */
+
+public class ConcurrentBeanCounterLogicTest {
+
+	/**
+	 * Returns remaining + in-flight + in-slot beans.
+	 */
+	private static long beansInMachine(BeanCounterLogic logic, int slots) {
+		long count = logic.getRemainingBeanCount();
+		for (int i = 0; i < slots; i++) {
+			count += logic.getSlotBeanCount(i);
+			if (logic.getInFlightBeanXPos(i) != BeanCounterLogic.NO_BEAN_IN_YPOS) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Test case for bean conservation with several producers. Preconditions:
+	 * none. Execution steps: Start four producer threads, two adding beans to the
+	 * ingest queue and two dropping beans themselves, while the controlling
+	 * thread keeps stepping; join the producers, then step until the machine
+	 * stops, and halve and repeat it. Invariants: at every quiescent point (after
+	 * the join, after each later step, and after halving and repeating) the
+	 * remaining, in-flight and in-slot beans add up to the beans given to the
+	 * machine, and when the machine stops every bean is in a slot.
+	 */
+	@Test(timeout = 20000)
+	public void testBeanConservationWithProducers() throws InterruptedException {
+		int slots = 8;
+		int perProducer = 5000;
+		ConcurrentBeanCounterLogic logic = new ConcurrentBeanCounterLogic(slots);
+		logic.reset(BeanCounterLogicTest.seededBeans(slots, 100, true, 40));
+		Thread[] producers = new Thread[4];
+		for (int p = 0; p < producers.length; p++) {
+			Bean[] beans = BeanCounterLogicTest.seededBeans(slots, perProducer, p % 2 == 0, 41 + p);
+			boolean drop = p >= 2;
+			producers[p] = new Thread(() -> {
+				for (Bean bean : beans) {
+					if (drop) {
+						logic.drop(bean);
+					} else {
+						logic.addBean(bean);
+					}
+				}
+			});
+			producers[p].start();
+		}
+		boolean running = true;
+		while (running) {
+			logic.advanceStep();
+			running = false;
+			for (Thread producer : producers) {
+				running |= producer.isAlive();
+			}
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+
+		long total = 100 + producers.length * perProducer;
+		assertEquals(total, beansInMachine(logic, slots));
+		while (logic.advanceStep()) {
+			assertEquals(total, beansInMachine(logic, slots));
+		}
+		long inSlots = 0;
+		for (int i = 0; i < slots; i++) {
+			inSlots += logic.getSlotBeanCount(i);
+		}
+		assertEquals(total, inSlots);
+
+		logic.lowerHalf();
+		assertEquals((total + 1) / 2, beansInMachine(logic, slots));
+		logic.repeat();
+		assertEquals((total + 1) / 2, beansInMachine(logic, slots));
+		logic.runToCompletion();
+		assertEquals((total + 1) / 2, beansInMachine(logic, slots));
+	}
+}
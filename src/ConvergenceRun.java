@@ -0,0 +1,227 @@
+import java.util.function.Consumer;
+
+/**
+ * ConvergenceRun: Keeps dropping beans until the slot histogram is known to a
+ * requested precision, instead of running a fixed, generously chosen bean
+ * count.
+ *
+ * <p>
+ * Beans are dropped in batches. After each batch the run computes confidence
+ * intervals for the average slot (what getAverageSlotBeanCount() returns) and
+ * for the proportion of beans in every slot, and reports them as an Estimate.
+ * It stops as soon as the watched statistic has a half-width at or below the
+ * target. The average uses the normal interval z * sd / sqrt(n), the
+ * proportions use Wilson score intervals, which stay meaningful for slots that
+ * have (almost) no beans yet.
+ *
+ * <p>
+ * The first batch has MIN_BATCH beans. After that, the number of beans still
+ * needed is estimated from the current spread and the next batch covers that
+ * estimate, but never more than the beans dropped so far, so a poor early
+ * estimate can at most double the work. Bean i is the same bean as bean i of a
+ * ShardedRun with the same seed, so the counts at any point equal a fixed-size
+ * run of that many beans.
+ */
+
+public class ConvergenceRun {
+	static final long MIN_BATCH = 1000;
+
+	/** Statistic whose confidence interval decides when to stop. */
+	public enum Target {
+		AVERAGE, SLOTS
+	}
+
+	/**
+	 * Estimate: The state of a run after one batch.
+	 */
+	public static class Estimate {
+		public final long beans;
+		public final long[] counts;
+		public final double average;
+		public final double averageHalfWidth;
+		public final double[] proportions;
+		public final double[] proportionHalfWidths;
+
+		Estimate(long beans, long[] counts, double z) {
+			this.beans = beans;
+			this.counts = counts.clone();
+			double sum = 0;
+			for (int i = 0; i < counts.length; i++) {
+				sum += (double) i * counts[i];
+			}
+			average = beans > 0 ? sum / beans : 0;
+			double squares = 0;
+			for (int i = 0; i < counts.length; i++) {
+				squares += counts[i] * (i - average) * (i - average);
+			}
+			double variance = beans > 1 ? squares / (beans - 1) : Double.POSITIVE_INFINITY;
+			averageHalfWidth = z * Math.sqrt(variance / beans);
+			proportions = new double[counts.length];
+			proportionHalfWidths = new double[counts.length];
+			for (int i = 0; i < counts.length; i++) {
+				double p = (double) counts[i] / beans;
+				double z2n = z * z / beans;
+				proportions[i] = p;
+				proportionHalfWidths[i] = z / (1 + z2n) * Math.sqrt(p * (1 - p) / beans + z2n / (4 * beans));
+			}
+		}
+
+		/**
+		 * Returns the widest half-width of any slot proportion.
+		 *
+		 * @return the largest proportion half-width
+		 */
+		public double getMaxProportionHalfWidth() {
+			double max = 0;
+			for (double h : proportionHalfWidths) {
+				max = Math.max(max, h);
+			}
+			return max;
+		}
+
+		double halfWidth(Target target) {
+			return target == Target.AVERAGE ? averageHalfWidth : getMaxProportionHalfWidth();
+		}
+
+		/**
+		 * Returns the variance of one bean's contribution to the watched statistic,
+		 * used to estimate the number of beans a half-width needs.
+		 */
+		double unitVariance(Target target, double z) {
+			double h = halfWidth(target);
+			return h * h * beans / (z * z);
+		}
+	}
+
+	private final int slotCount;
+	private final String mode;
+	private final long seed;
+
+	/**
+	 * Constructor - sets up a run. Nothing is dropped until run() is called.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @param mode      luck, skill or bias=p[,p...]
+	 * @param seed      the seed of the bean population
+	 */
+	public ConvergenceRun(int slotCount, String mode, long seed) {
+		this.slotCount = slotCount;
+		this.mode = mode;
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns z such that a standard normal lies within [-z, z] with the given
+	 * probability.
+	 *
+	 * @param confidence the confidence level, e.g. 0.95
+	 * @return the two-sided critical value
+	 */
+	static double criticalValue(double confidence) {
+		double target = 1 - (1 - confidence) / 2;
+		double lo = 0;
+		double hi = 40;
+		for (int i = 0; i < 100; i++) {
+			double mid = (lo + hi) / 2;
+			if (BeanFactory.normalCdf(mid) < target) {
+				lo = mid;
+			} else {
+				hi = mid;
+			}
+		}
+		return (lo + hi) / 2;
+	}
+
+	/**
+	 * Drops beans until the half-width of the target statistic is at most
+	 * halfWidth, reporting an estimate after every batch.
+	 *
+	 * @param target     the statistic to watch
+	 * @param halfWidth  the requested confidence interval half-width
+	 * @param confidence the confidence level, e.g. 0.95
+	 * @param progress   receives the estimate after every batch, or null
+	 * @return the final estimate
+	 */
+	public Estimate run(Target target, double halfWidth, double confidence, Consumer<Estimate> progress) {
+		if (!(halfWidth > 0) || !(confidence > 0 && confidence < 1)) {
+			throw new IllegalArgumentException("half-width must be positive and confidence in (0, 1)");
+		}
+		double z = criticalValue(confidence);
+		long[] counts = new long[slotCount];
+		long beans = 0;
+		long batch = MIN_BATCH;
+		while (true) {
+			long[] histogram = ShardedRun.runShard(slotCount, beans, beans + batch, mode, seed);
+			for (int i = 0; i < slotCount; i++) {
+				counts[i] += histogram[i];
+			}
+			beans += batch;
+			Estimate estimate = new Estimate(beans, counts, z);
+			if (progress != null) {
+				progress.accept(estimate);
+			}
+			if (estimate.halfWidth(target) <= halfWidth) {
+				return estimate;
+			}
+			double needed = Math.ceil(estimate.unitVariance(target, z) * z * z / (halfWidth * halfWidth));
+			batch = (long) Math.max(MIN_BATCH, Math.min(needed - beans, beans));
+		}
+	}
+
+	/**
+	 * Prints usage information.
+	 */
+	public static void showUsage() {
+		System.out.println("Usage: java ConvergenceRun slot_count <luck | skill | bias=p[,p...]> <average | slots> "
+				+ "half_width [confidence] [seed]");
+		System.out.println("Example: java ConvergenceRun 10 luck average 0.001");
+		System.out.println("Example: java ConvergenceRun 10 skill slots 0.0005 0.99 1234");
+	}
+
+	/**
+	 * Main method. Prints an estimate with error bars after every batch and the
+	 * final slot proportions.
+	 *
+	 * @param args commandline arguments; see showUsage() for detailed information
+	 */
+	public static void main(String[] args) {
+		if (args.length < 4 || args.length > 6) {
+			showUsage();
+			return;
+		}
+		int slotCount;
+		double halfWidth;
+		double confidence = 0.95;
+		long seed = System.nanoTime();
+		Target target;
+		try {
+			slotCount = Integer.parseInt(args[0]);
+			target = Target.valueOf(args[2].toUpperCase());
+			halfWidth = Double.parseDouble(args[3]);
+			if (args.length >= 5) {
+				confidence = Double.parseDouble(args[4]);
+			}
+			if (args.length == 6) {
+				seed = Long.parseLong(args[5]);
+			}
+		} catch (IllegalArgumentException ne) {
+			showUsage();
+			return;
+		}
+		String mode = args[1];
+		if (slotCount < 1 || !(halfWidth > 0) || !(confidence > 0 && confidence < 1)
+				|| !(mode.equals("luck") || mode.equals("skill") || mode.startsWith("bias="))) {
+			showUsage();
+			return;
+		}
+		System.out.println("Seed: " + seed);
+		Estimate estimate = new ConvergenceRun(slotCount, mode, seed).run(target, halfWidth, confidence,
+				e -> System.out.println(String.format("%12d beans  average %.6f +- %.6f  max slot +- %.6f", e.beans,
+						e.average, e.averageHalfWidth, e.getMaxProportionHalfWidth())));
+		System.out.println("Slot proportions:");
+		for (int i = 0; i < slotCount; i++) {
+			System.out.println(String.format("%4d  %.6f +- %.6f", i, estimate.proportions[i],
+					estimate.proportionHalfWidths[i]));
+		}
+	}
+}
@@ -0,0 +1,451 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * DifferentialFuzzer: Runs random operation sequences (reset, advanceStep,
+ * upperHalf, lowerHalf, repeat) against both BeanCounterLogicImpl and
+ * BeanCounterLogicBuggy under shared seeds, and checks the invariants from
+ * BeanCounterLogicTest after every operation.
+ *
+ * <p>
+ * Unlike the JPF run, this does not enumerate every random path. Instead it
+ * samples many small machines per second on all cores. Both implementations
+ * are instantiated directly, rather than through Config, so that they can be run
+ * side by side from multiple threads. Every bean gets its own Random seeded from
+ * the case seed, so the two implementations see the same bean population. In
+ * skill mode the machine is deterministic, so the observable state of both
+ * implementations is also compared after every operation.
+ *
+ * <p>
+ * The first failure found for each implementation is shrunk to a minimal trace
+ * (fewest operations, then fewest beans, then fewest slots) and printed.
+ */
+
+public class DifferentialFuzzer {
+	// Operation codes in a trace
+	static final int OP_RESET = 0;
+	static final int OP_STEP = 1;
+	static final int OP_UPPER = 2;
+	static final int OP_LOWER = 3;
+	static final int OP_REPEAT = 4;
+
+	private static final String[] OP_NAMES = { "reset", "advanceStep", "upperHalf", "lowerHalf", "repeat" };
+
+	private static final int MAX_SLOTS = 6;
+	private static final int MAX_BEANS = 8;
+	private static final int MAX_OPS = 48;
+
+	/**
+	 * A single fuzzing case: a machine configuration plus an operation trace. The
+	 * trace always starts with an implicit reset.
+	 */
+	static final class Case {
+		final long seed;
+		final int slotCount;
+		final int beanCount;
+		final boolean isLuck;
+		final int[] ops;
+
+		Case(long seed, int slotCount, int beanCount, boolean isLuck, int[] ops) {
+			this.seed = seed;
+			this.slotCount = slotCount;
+			this.beanCount = beanCount;
+			this.isLuck = isLuck;
+			this.ops = ops;
+		}
+
+		/**
+		 * Generates a random case. Steps are weighted so that most traces run at
+		 * least one machine to completion.
+		 *
+		 * @param rnd the random source for the case shape
+		 * @return the new case
+		 */
+		static Case random(SplittableRandom rnd) {
+			int slotCount = 1 + rnd.nextInt(MAX_SLOTS);
+			int beanCount = rnd.nextInt(MAX_BEANS + 1);
+			boolean isLuck = rnd.nextBoolean();
+			int[] ops = new int[1 + rnd.nextInt(MAX_OPS)];
+			for (int i = 0; i < ops.length; i++) {
+				int r = rnd.nextInt(16);
+				if (r < 10) {
+					ops[i] = OP_STEP;
+				} else if (r < 12) {
+					ops[i] = OP_UPPER;
+				} else if (r < 14) {
+					ops[i] = OP_LOWER;
+				} else if (r < 15) {
+					ops[i] = OP_REPEAT;
+				} else {
+					ops[i] = OP_RESET;
+				}
+			}
+			return new Case(rnd.nextLong(), slotCount, beanCount, isLuck, ops);
+		}
+
+		Case withOps(int[] newOps) {
+			return new Case(seed, slotCount, beanCount, isLuck, newOps);
+		}
+
+		Case withBeanCount(int newBeanCount) {
+			return new Case(seed, slotCount, newBeanCount, isLuck, ops);
+		}
+
+		Case withSlotCount(int newSlotCount) {
+			return new Case(seed, newSlotCount, beanCount, isLuck, ops);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder bld = new StringBuilder();
+			bld.append("(slotCount=").append(slotCount).append(", beanCount=").append(beanCount)
+					.append(", isLuck=").append(isLuck).append(", seed=").append(seed).append("): reset");
+			for (int op : ops) {
+				bld.append(", ").append(OP_NAMES[op]);
+			}
+			return bld.toString();
+		}
+	}
+
+	/**
+	 * Creates the bean population for a case. Bean i always gets a Random seeded
+	 * with the same value regardless of implementation.
+	 *
+	 * @param c     the case
+	 * @param buggy whether to create BeanBuggy (true) or BeanImpl (false) objects
+	 * @return the beans
+	 */
+	static Bean[] createBeans(Case c, boolean buggy) {
+		Bean[] beans = new Bean[c.beanCount];
+		for (int i = 0; i < c.beanCount; i++) {
+			Random rand = new Random(c.seed * 31 + i);
+			beans[i] = buggy ? new BeanBuggy(c.slotCount, c.isLuck, rand) : new BeanImpl(c.slotCount, c.isLuck, rand);
+		}
+		return beans;
+	}
+
+	static BeanCounterLogic createLogic(Case c, boolean buggy) {
+		return buggy ? new BeanCounterLogicBuggy(c.slotCount) : new BeanCounterLogicImpl(c.slotCount);
+	}
+
+	/**
+	 * Runs a case against one implementation.
+	 *
+	 * @param c     the case to run
+	 * @param buggy whether to run BeanCounterLogicBuggy (true) or
+	 *              BeanCounterLogicImpl (false)
+	 * @param trace if non-null, receives the observable state after each operation
+	 * @return a description of the first invariant violation, or null if none
+	 */
+	static String run(Case c, boolean buggy, int[][] trace) {
+		BeanCounterLogic logic = createLogic(c, buggy);
+		Bean[] beans = createBeans(c, buggy);
+		try {
+			logic.reset(beans);
+			int population = c.beanCount;
+			String error = checkReset(c, logic, population);
+			if (error != null) {
+				return "reset: " + error;
+			}
+			record(c, logic, trace, 0);
+			for (int i = 0; i < c.ops.length; i++) {
+				int op = c.ops[i];
+				int[] before = slotCounts(c, logic);
+				switch (op) {
+					case OP_RESET:
+						logic.reset(beans);
+						population = c.beanCount;
+						error = checkReset(c, logic, population);
+						break;
+					case OP_STEP:
+						boolean changed = logic.advanceStep();
+						error = checkStep(c, logic, population, changed);
+						break;
+					case OP_UPPER:
+						logic.upperHalf();
+						population -= sum(before) / 2;
+						error = checkHalf(c, logic, population, before, true);
+						break;
+					case OP_LOWER:
+						logic.lowerHalf();
+						population -= sum(before) / 2;
+						error = checkHalf(c, logic, population, before, false);
+						break;
+					default:
+						logic.repeat();
+						error = checkReset(c, logic, population);
+						break;
+				}
+				if (error != null) {
+					return "op " + (i + 1) + " (" + OP_NAMES[op] + "): " + error;
+				}
+				record(c, logic, trace, i + 1);
+			}
+		} catch (RuntimeException | AssertionError e) {
+			return "threw " + e;
+		}
+		return null;
+	}
+
+	private static void record(Case c, BeanCounterLogic logic, int[][] trace, int index) {
+		if (trace == null) {
+			return;
+		}
+		int[] state = new int[c.slotCount * 2 + 1];
+		for (int i = 0; i < c.slotCount; i++) {
+			state[i] = logic.getInFlightBeanXPos(i);
+			state[c.slotCount + i] = logic.getSlotBeanCount(i);
+		}
+		state[c.slotCount * 2] = logic.getRemainingBeanCount();
+		trace[index] = state;
+	}
+
+	private static int[] slotCounts(Case c, BeanCounterLogic logic) {
+		int[] counts = new int[c.slotCount];
+		for (int i = 0; i < c.slotCount; i++) {
+			counts[i] = logic.getSlotBeanCount(i);
+		}
+		return counts;
+	}
+
+	private static int sum(int[] values) {
+		int total = 0;
+		for (int v : values) {
+			total += v;
+		}
+		return total;
+	}
+
+	private static int inFlightCount(Case c, BeanCounterLogic logic) {
+		int count = 0;
+		for (int i = 0; i < c.slotCount; i++) {
+			if (logic.getInFlightBeanXPos(i) != BeanCounterLogic.NO_BEAN_IN_YPOS) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Invariants that hold after every operation: in-flight positions are legal,
+	 * beans are conserved, and the average is consistent with the slot counts.
+	 */
+	private static String checkCommon(Case c, BeanCounterLogic logic, int population) {
+		for (int y = 0; y < c.slotCount; y++) {
+			int x = logic.getInFlightBeanXPos(y);
+			if (x != BeanCounterLogic.NO_BEAN_IN_YPOS && (x < 0 || x > y)) {
+				return "illegal in-flight position (" + x + ", " + y + ")";
+			}
+		}
+		int[] counts = slotCounts(c, logic);
+		int inSlots = sum(counts);
+		int total = logic.getRemainingBeanCount() + inFlightCount(c, logic) + inSlots;
+		if (total != population) {
+			return "bean count " + total + " != expected " + population;
+		}
+		double weighted = 0;
+		for (int i = 0; i < c.slotCount; i++) {
+			weighted += i * counts[i];
+		}
+		double average = logic.getAverageSlotBeanCount();
+		if (Math.abs(average * inSlots - weighted) > 1e-6) {
+			return "average " + average + " inconsistent with slot counts " + Arrays.toString(counts);
+		}
+		return null;
+	}
+
+	private static String checkReset(Case c, BeanCounterLogic logic, int population) {
+		String error = checkCommon(c, logic, population);
+		if (error != null) {
+			return error;
+		}
+		int expectedInFlight = population > 0 ? 1 : 0;
+		if (inFlightCount(c, logic) != expectedInFlight || sum(slotCounts(c, logic)) != 0
+				|| logic.getRemainingBeanCount() != population - expectedInFlight) {
+			return "machine not restarted with " + population + " beans";
+		}
+		if (population > 0 && logic.getInFlightBeanXPos(0) != 0) {
+			return "first bean not at the top";
+		}
+		return null;
+	}
+
+	private static String checkStep(Case c, BeanCounterLogic logic, int population, boolean changed) {
+		String error = checkCommon(c, logic, population);
+		if (error == null && !changed
+				&& (logic.getRemainingBeanCount() != 0 || inFlightCount(c, logic) != 0)) {
+			error = "advanceStep returned false with beans still in the machine";
+		}
+		return error;
+	}
+
+	private static String checkHalf(Case c, BeanCounterLogic logic, int population, int[] before,
+			boolean upper) {
+		String error = checkCommon(c, logic, population);
+		if (error != null) {
+			return error;
+		}
+		// Expected slots keep the ceil(N/2) beans at the requested end
+		int keep = sum(before) - sum(before) / 2;
+		int[] expected = new int[c.slotCount];
+		for (int k = 0; k < c.slotCount; k++) {
+			int i = upper ? c.slotCount - 1 - k : k;
+			expected[i] = Math.min(keep, before[i]);
+			keep -= expected[i];
+		}
+		int[] actual = slotCounts(c, logic);
+		if (!Arrays.equals(expected, actual)) {
+			return "slots " + Arrays.toString(actual) + " != expected " + Arrays.toString(expected);
+		}
+		return null;
+	}
+
+	/**
+	 * Runs a case against both implementations. Returns the failure for the
+	 * requested implementation; in skill mode a divergence of observable state from
+	 * the other implementation also counts as a failure of the buggy one.
+	 */
+	static String fails(Case c, boolean buggy) {
+		if (!buggy || c.isLuck) {
+			return run(c, buggy, null);
+		}
+		int[][] implTrace = new int[c.ops.length + 1][];
+		int[][] buggyTrace = new int[c.ops.length + 1][];
+		if (run(c, false, implTrace) != null) {
+			// Reference is broken on this case; only report invariant violations
+			return run(c, true, null);
+		}
+		String error = run(c, true, buggyTrace);
+		if (error != null) {
+			return error;
+		}
+		for (int i = 0; i < implTrace.length; i++) {
+			if (!Arrays.equals(implTrace[i], buggyTrace[i])) {
+				return "diverges from BeanCounterLogicImpl after op " + i;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Shrinks a failing case: removes chunks of operations (halving the chunk size
+	 * down to one), then lowers the bean and slot counts, as long as the case keeps
+	 * failing.
+	 */
+	static Case shrink(Case c, boolean buggy) {
+		boolean progress = true;
+		while (progress) {
+			progress = false;
+			for (int chunk = Math.max(1, c.ops.length / 2); chunk >= 1; chunk /= 2) {
+				for (int start = 0; start + chunk <= c.ops.length;) {
+					int[] ops = new int[c.ops.length - chunk];
+					System.arraycopy(c.ops, 0, ops, 0, start);
+					System.arraycopy(c.ops, start + chunk, ops, start, ops.length - start);
+					Case candidate = c.withOps(ops);
+					if (fails(candidate, buggy) != null) {
+						c = candidate;
+						progress = true;
+					} else {
+						start++;
+					}
+				}
+			}
+			while (c.beanCount > 0 && fails(c.withBeanCount(c.beanCount - 1), buggy) != null) {
+				c = c.withBeanCount(c.beanCount - 1);
+				progress = true;
+			}
+			while (c.slotCount > 1 && fails(c.withSlotCount(c.slotCount - 1), buggy) != null) {
+				c = c.withSlotCount(c.slotCount - 1);
+				progress = true;
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * Prints usage information.
+	 */
+	public static void showUsage() {
+		System.out.println("Usage: java DifferentialFuzzer [seconds] [threads] [seed]");
+		System.out.println("Example: java DifferentialFuzzer 60 8 1234");
+	}
+
+	/**
+	 * Main method. Fuzzes both implementations for the given duration on the given
+	 * number of threads and reports throughput and the minimal failing traces.
+	 *
+	 * @param args commandline arguments; see showUsage() for detailed information
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		long seconds = 10;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = System.nanoTime();
+		try {
+			if (args.length > 0) {
+				seconds = Long.parseLong(args[0]);
+			}
+			if (args.length > 1) {
+				threads = Integer.parseInt(args[1]);
+			}
+			if (args.length > 2) {
+				seed = Long.parseLong(args[2]);
+			}
+		} catch (NumberFormatException ne) {
+			showUsage();
+			return;
+		}
+		if (args.length > 3 || seconds <= 0 || threads <= 0) {
+			showUsage();
+			return;
+		}
+
+		final long baseSeed = seed;
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		final AtomicLong executed = new AtomicLong();
+		final List<AtomicReference<Case>> firstFailure = new ArrayList<>();
+		firstFailure.add(new AtomicReference<>());
+		firstFailure.add(new AtomicReference<>());
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			final SplittableRandom rnd = new SplittableRandom(baseSeed + t * 0x9E3779B97F4A7C15L);
+			pool.execute(() -> {
+				long local = 0;
+				while ((local & 0xFF) != 0 || System.nanoTime() < deadline) {
+					Case c = Case.random(rnd);
+					for (int impl = 0; impl < 2; impl++) {
+						if (firstFailure.get(impl).get() == null && fails(c, impl == 1) != null) {
+							firstFailure.get(impl).compareAndSet(null, c);
+						}
+					}
+					local++;
+				}
+				executed.addAndGet(local);
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+
+		System.out.println("Seed: " + baseSeed);
+		System.out.println("Sequences: " + executed.get() + " (" + executed.get() * 60 / seconds + " per minute)");
+		String[] names = { "BeanCounterLogicImpl", "BeanCounterLogicBuggy" };
+		for (int impl = 0; impl < 2; impl++) {
+			Case c = firstFailure.get(impl).get();
+			if (c == null) {
+				System.out.println(names[impl] + ": no failures");
+			} else {
+				Case minimal = shrink(c, impl == 1);
+				System.out.println(names[impl] + ": FAILURE " + fails(minimal, impl == 1));
+				System.out.println("  minimal trace " + minimal);
+			}
+		}
+	}
+}
@@ -0,0 +1,275 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * GenerationExperiment: Runs the regression-to-the-mean demo (run, upperHalf(),
+ * repeat(), run, ...) for many generations over large populations without
+ * simulating individual beans.
+ *
+ * <p>
+ * A script is a comma-separated list of the operations run, upper, lower and
+ * repeat, and one generation executes the script once. The state is only a
+ * bean count per slot plus the beans waiting to be dropped:
+ *
+ * <ul>
+ * <li>In skill mode a bean always lands in the slot of its clamped skill level,
+ * so the waiting beans are kept as a count per skill slot and run just moves
+ * them. The population is drawn once with BeanFactory, so this is exact.</li>
+ * <li>In luck and bias mode a bean's slot does not depend on where it landed
+ * before, so the waiting beans are just a number and run draws each bean's slot
+ * from the machine's slot distribution with one 31-bit draw.</li>
+ * </ul>
+ *
+ * <p>
+ * upper and lower remove half of the beans in the slots from the low or high
+ * end, exactly like upperHalf() and lowerHalf(). Runs are drawn in parallel
+ * chunks, each with a random stream derived from the seed, the run number and
+ * the chunk, so results only depend on the seed.
+ */
+
+public class GenerationExperiment {
+	static final int CHUNK_SIZE = 1 << 20;
+
+	/** Operations a script can use. */
+	public enum Op {
+		RUN, UPPER, LOWER, REPEAT
+	}
+
+	private final int slotCount;
+	private final long seed;
+	private final PegBias bias;		// Slot distribution in luck and bias mode, null in skill mode
+	private final int[] slots;		// Beans in each slot
+	private final int[] waiting;	// Skill mode: waiting beans per skill slot
+	private int waitingCount;		// Luck and bias mode: number of waiting beans
+	private long runCount;
+
+	/**
+	 * Constructor - creates a population of waiting beans.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @param beanCount the number of beans
+	 * @param mode      luck, skill or bias=p[,p...]
+	 * @param seed      the seed of the experiment
+	 */
+	public GenerationExperiment(int slotCount, int beanCount, String mode, long seed) {
+		this.slotCount = slotCount;
+		this.seed = seed;
+		slots = new int[slotCount];
+		waiting = new int[slotCount];
+		if (mode.equals("skill")) {
+			bias = null;
+			for (int skill : new BeanFactory(slotCount, seed).createSkills(beanCount)) {
+				waiting[Math.max(0, Math.min(slotCount - 1, skill))]++;
+			}
+		} else {
+			bias = mode.equals("luck") ? PegBias.uniform(slotCount, 0.5)
+					: PegBias.parse(slotCount, mode.substring("bias=".length()));
+			waitingCount = beanCount;
+		}
+	}
+
+	/**
+	 * Parses a script such as "run,upper,repeat".
+	 *
+	 * @param script the comma-separated operations
+	 * @return the operations
+	 * @throws IllegalArgumentException if an operation is unknown
+	 */
+	public static Op[] parseScript(String script) {
+		String[] parts = script.split(",");
+		Op[] ops = new Op[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			ops[i] = Op.valueOf(parts[i].trim().toUpperCase());
+		}
+		return ops;
+	}
+
+	/**
+	 * Applies one operation.
+	 *
+	 * @param op the operation
+	 */
+	public void apply(Op op) {
+		switch (op) {
+		case RUN:
+			run();
+			break;
+		case UPPER:
+			halve(true);
+			break;
+		case LOWER:
+			halve(false);
+			break;
+		default:
+			for (int i = 0; i < slotCount; i++) {
+				if (bias == null) {
+					waiting[i] += slots[i];
+				} else {
+					waitingCount += slots[i];
+				}
+				slots[i] = 0;
+			}
+			break;
+		}
+	}
+
+	private void run() {
+		if (bias == null) {
+			for (int i = 0; i < slotCount; i++) {
+				slots[i] += waiting[i];
+				waiting[i] = 0;
+			}
+			return;
+		}
+		int count = waitingCount;
+		int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		long run = runCount++;
+		int[] landed = IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+			SplittableRandom rnd = new SplittableRandom(ShardedRun.beanSeed(ShardedRun.beanSeed(seed, run), chunk));
+			int[] counts = new int[slotCount];
+			int end = Math.min(count, (chunk + 1) * CHUNK_SIZE);
+			for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+				counts[bias.slotForDraw(rnd.nextInt() >>> 1)]++;
+			}
+			return counts;
+		}).reduce(new int[slotCount], (a, b) -> {
+			int[] sum = new int[slotCount];
+			for (int i = 0; i < slotCount; i++) {
+				sum[i] = a[i] + b[i];
+			}
+			return sum;
+		});
+		for (int i = 0; i < slotCount; i++) {
+			slots[i] += landed[i];
+		}
+		waitingCount = 0;
+	}
+
+	private void halve(boolean upper) {
+		long total = 0;
+		for (int c : slots) {
+			total += c;
+		}
+		long remove = total / 2;
+		for (int k = 0; k < slotCount && remove > 0; k++) {
+			int i = upper ? k : slotCount - 1 - k;
+			int taken = (int) Math.min(remove, slots[i]);
+			slots[i] -= taken;
+			remove -= taken;
+		}
+	}
+
+	/**
+	 * Returns a copy of the bean count of each slot.
+	 *
+	 * @return the slot bean counts
+	 */
+	public int[] getSlotBeanCounts() {
+		return slots.clone();
+	}
+
+	/**
+	 * Returns the number of beans in the slots and waiting to be dropped.
+	 *
+	 * @return the population size
+	 */
+	public long getBeanCount() {
+		long total = bias == null ? 0 : waitingCount;
+		for (int i = 0; i < slotCount; i++) {
+			total += slots[i] + (bias == null ? waiting[i] : 0);
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the average slot and its standard deviation over the given counts.
+	 */
+	static double[] stats(int[] counts) {
+		long beans = 0;
+		double sum = 0;
+		for (int i = 0; i < counts.length; i++) {
+			beans += counts[i];
+			sum += (double) i * counts[i];
+		}
+		if (beans == 0) {
+			return new double[] {0, 0};
+		}
+		double average = sum / beans;
+		double squares = 0;
+		for (int i = 0; i < counts.length; i++) {
+			squares += counts[i] * (i - average) * (i - average);
+		}
+		return new double[] {average, Math.sqrt(squares / beans)};
+	}
+
+	/**
+	 * Prints usage information.
+	 */
+	public static void showUsage() {
+		System.out.println("Usage: java GenerationExperiment slot_count bean_count <luck | skill | bias=p[,p...]> "
+				+ "generations script [seed]");
+		System.out.println("Example: java GenerationExperiment 10 10000000 luck 1000 run,upper,repeat");
+		System.out.println("Example: java GenerationExperiment 10 10000000 skill 20 run,upper,repeat 1234");
+	}
+
+	/**
+	 * Main method. Prints the slot statistics after the last run of every
+	 * generation.
+	 *
+	 * @param args commandline arguments; see showUsage() for detailed information
+	 */
+	public static void main(String[] args) {
+		if (args.length != 5 && args.length != 6) {
+			showUsage();
+			return;
+		}
+		int slotCount;
+		int beanCount;
+		int generations;
+		long seed = System.nanoTime();
+		Op[] script;
+		try {
+			slotCount = Integer.parseInt(args[0]);
+			beanCount = Integer.parseInt(args[1]);
+			generations = Integer.parseInt(args[3]);
+			script = parseScript(args[4]);
+			if (args.length == 6) {
+				seed = Long.parseLong(args[5]);
+			}
+		} catch (IllegalArgumentException ne) {
+			showUsage();
+			return;
+		}
+		String mode = args[2];
+		if (slotCount < 1 || beanCount < 0 || generations < 0
+				|| !(mode.equals("luck") || mode.equals("skill") || mode.startsWith("bias="))) {
+			showUsage();
+			return;
+		}
+		if (mode.startsWith("bias=")) {
+			try {
+				PegBias.parse(slotCount, mode.substring("bias=".length()));
+			} catch (IllegalArgumentException e) {
+				showUsage();
+				return;
+			}
+		}
+		GenerationExperiment experiment = new GenerationExperiment(slotCount, beanCount, mode, seed);
+		System.out.println("Seed: " + seed);
+		System.out.println("generation       beans    average      stdev  slot bean counts");
+		for (int g = 1; g <= generations; g++) {
+			int[] lastRun = null;
+			for (Op op : script) {
+				experiment.apply(op);
+				if (op == Op.RUN) {
+					lastRun = experiment.getSlotBeanCounts();
+				}
+			}
+			int[] counts = lastRun != null ? lastRun : experiment.getSlotBeanCounts();
+			double[] stats = stats(counts);
+			System.out.println(String.format("%10d %11d %10.6f %10.6f  %s", g, experiment.getBeanCount(), stats[0],
+					stats[1], Arrays.toString(counts)));
+		}
+	}
+}
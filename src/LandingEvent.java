@@ -0,0 +1,31 @@
+/**
+ * LandingEvent: One LandingEventSink callback as an immutable value, as
+ * delivered by LandingEventPublisher.
+ */
+
+public final class LandingEvent {
+	/**
+	 * The LandingEventSink callback the event stands for.
+	 */
+	public enum Kind {
+		LANDED, SLOTS_CLEARED, UPPER_HALF, LOWER_HALF, STEPPED
+	}
+
+	public final Kind kind;
+	public final long step;
+	public final int beanId;	// The landed bean, or -1 if kind is not LANDED
+	public final int slot;		// The slot it landed in, or -1 if kind is not LANDED
+
+	LandingEvent(Kind kind, long step, int beanId, int slot) {
+		this.kind = kind;
+		this.step = step;
+		this.beanId = beanId;
+		this.slot = slot;
+	}
+
+	@Override
+	public String toString() {
+		return kind == Kind.LANDED ? kind + "(" + step + ", bean " + beanId + ", slot " + slot + ")"
+				: kind + "(" + step + ")";
+	}
+}
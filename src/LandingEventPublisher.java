@@ -0,0 +1,318 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * LandingEventPublisher: A LandingEventSink that turns the events of a
+ * BeanCounterLogicImpl into a stream of event batches, delivered to each
+ * subscriber on its own executor with backpressure.
+ *
+ * <p>
+ * Subscriber and Subscription follow java.util.concurrent.Flow (onSubscribe,
+ * then onNext until onComplete or onError; nothing is delivered beyond what
+ * was requested), but are declared here because the logic classes must stay
+ * Java 8 compatible for JPF. Demand is counted in batches. A batch holds the
+ * events of one step, ending with its STEPPED event; the burst of events from
+ * runToCompletion() is split into batches of at most batchSize events.
+ *
+ * <p>
+ * Every subscription has a bounded buffer of batches that its executor drains
+ * as the subscriber requests them, so the simulation thread never runs
+ * subscriber code. When a buffer is full, a BLOCK subscription makes the
+ * simulation thread wait for room (backpressure), and a SAMPLE subscription
+ * drops its oldest buffered batch so the simulation never waits (the dropped
+ * events are counted by getDroppedEventCount()).
+ *
+ * <p>
+ * The sink callbacks, flush() and close() must all be called from the
+ * simulation thread (the thread that drives the logic): the batch being
+ * collected is confined to that thread and is not guarded. Only subscribe(),
+ * getDroppedEventCount() and the Subscription methods may be called from other
+ * threads. To attach a LandingLog as well, combine both with
+ * LandingEventSink.fanOut().
+ */
+
+public class LandingEventPublisher implements LandingEventSink, Closeable {
+
+	/**
+	 * Subscriber: Receives the event batches of one subscription, one call at a
+	 * time, on the subscription's executor.
+	 */
+	public interface Subscriber {
+		public void onSubscribe(Subscription subscription);
+
+		public void onNext(List<LandingEvent> batch);
+
+		public void onError(Throwable error);
+
+		public void onComplete();
+	}
+
+	/**
+	 * Subscription: The link between the publisher and one subscriber.
+	 */
+	public interface Subscription {
+		/**
+		 * Asks for n more batches. Long.MAX_VALUE means no limit.
+		 *
+		 * @param n the number of batches, greater than 0
+		 */
+		public void request(long n);
+
+		/**
+		 * Stops delivery and drops the buffered batches.
+		 */
+		public void cancel();
+	}
+
+	/**
+	 * What to do with a new batch when a subscription's buffer is full.
+	 */
+	public enum Overflow {
+		BLOCK, SAMPLE
+	}
+
+	private final int batchSize;
+	private final List<BufferedSubscription> subscriptions = new CopyOnWriteArrayList<>();
+	private final AtomicLong droppedEvents = new AtomicLong();
+	private List<LandingEvent> batch = new ArrayList<>();
+	private volatile boolean closed;
+
+	/**
+	 * Constructor - creates a publisher without subscribers.
+	 *
+	 * @param batchSize the most events in one batch
+	 */
+	public LandingEventPublisher(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batch size must be at least 1");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Adds a subscriber. It gets the batches published from now on.
+	 *
+	 * @param subscriber    the subscriber
+	 * @param executor      the executor that calls the subscriber
+	 * @param bufferBatches the most batches buffered for the subscriber
+	 * @param overflow      what to do when the buffer is full
+	 */
+	public void subscribe(Subscriber subscriber, Executor executor, int bufferBatches, Overflow overflow) {
+		BufferedSubscription subscription = new BufferedSubscription(subscriber, executor, bufferBatches, overflow);
+		subscriptions.add(subscription);
+		if (closed) {
+			subscription.complete();
+		}
+		subscription.signal();
+	}
+
+	/**
+	 * Returns the number of events that SAMPLE subscriptions dropped, summed over
+	 * all subscriptions.
+	 */
+	public long getDroppedEventCount() {
+		return droppedEvents.get();
+	}
+
+	private void add(LandingEvent event) {
+		if (subscriptions.isEmpty()) {
+			return;
+		}
+		batch.add(event);
+		if (batch.size() >= batchSize || event.kind == LandingEvent.Kind.STEPPED) {
+			flush();
+		}
+	}
+
+	/**
+	 * Publishes the events collected so far as a batch, without waiting for the
+	 * end of the step. Must be called from the simulation thread.
+	 */
+	public void flush() {
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<LandingEvent> full = Collections.unmodifiableList(batch);
+		batch = new ArrayList<>();
+		for (BufferedSubscription subscription : subscriptions) {
+			subscription.offer(full);
+		}
+	}
+
+	/**
+	 * Publishes the last events and completes every subscription once its buffer
+	 * has been delivered. Must be called from the simulation thread.
+	 */
+	public void close() {
+		flush();
+		closed = true;
+		for (BufferedSubscription subscription : subscriptions) {
+			subscription.complete();
+			subscription.signal();
+		}
+	}
+
+	public void landed(long step, int beanId, int slot) {
+		add(new LandingEvent(LandingEvent.Kind.LANDED, step, beanId, slot));
+	}
+
+	public void slotsCleared(long step) {
+		add(new LandingEvent(LandingEvent.Kind.SLOTS_CLEARED, step, -1, -1));
+	}
+
+	public void halved(long step, boolean upper) {
+		add(new LandingEvent(upper ? LandingEvent.Kind.UPPER_HALF : LandingEvent.Kind.LOWER_HALF, step, -1, -1));
+	}
+
+	@Override
+	public void stepped(long step) {
+		add(new LandingEvent(LandingEvent.Kind.STEPPED, step, -1, -1));
+	}
+
+	/**
+	 * BufferedSubscription: The buffer of one subscriber and the task that
+	 * drains it. Drains are serialized by the wip counter: whoever raises it
+	 * from 0 schedules a drain, and the drain runs until it has seen every
+	 * signal, so the subscriber is never called from two threads at once. Errors
+	 * (an invalid request, or anything the subscriber throws) cancel the
+	 * subscription and are delivered by the drain as well.
+	 */
+	private class BufferedSubscription implements Subscription, Runnable {
+		private final Subscriber subscriber;
+		private final Executor executor;
+		private final Overflow overflow;
+		private final ArrayBlockingQueue<List<LandingEvent>> buffer;
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private final AtomicReference<Throwable> error = new AtomicReference<>();
+		private volatile boolean cancelled;
+		private volatile boolean completed;
+		private boolean started;	// Only used by the drain
+		private boolean terminated;	// Only used by the drain; onComplete or onError was called
+
+		BufferedSubscription(Subscriber subscriber, Executor executor, int bufferBatches, Overflow overflow) {
+			if (bufferBatches < 1) {
+				throw new IllegalArgumentException("buffer must hold at least 1 batch");
+			}
+			this.subscriber = subscriber;
+			this.executor = executor;
+			this.overflow = overflow;
+			buffer = new ArrayBlockingQueue<>(bufferBatches);
+		}
+
+		void offer(List<LandingEvent> full) {
+			if (cancelled) {
+				return;
+			}
+			if (overflow == Overflow.SAMPLE) {
+				while (!buffer.offer(full)) {
+					List<LandingEvent> oldest = buffer.poll();
+					if (oldest != null) {
+						droppedEvents.addAndGet(oldest.size());
+					}
+				}
+			} else {
+				try {
+					while (!cancelled && !buffer.offer(full, 10, TimeUnit.MILLISECONDS)) {
+						// Wait for the subscriber to catch up, unless it cancels
+					}
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			signal();
+		}
+
+		void complete() {
+			completed = true;
+		}
+
+		void signal() {
+			if (wip.getAndIncrement() == 0) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					cancel();
+				}
+			}
+		}
+
+		public void request(long n) {
+			if (n <= 0) {
+				fail(new IllegalArgumentException("request must be positive"));
+				signal();
+				return;
+			}
+			requested.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+			signal();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+			buffer.clear();
+		}
+
+		/**
+		 * Cancels the subscription and records the error for the drain to deliver.
+		 */
+		private void fail(Throwable e) {
+			error.compareAndSet(null, e);
+			cancel();
+		}
+
+		/**
+		 * Drains the buffer on the executor.
+		 */
+		public void run() {
+			int missed = 1;
+			while (true) {
+				if (!started) {
+					started = true;
+					try {
+						subscriber.onSubscribe(this);
+					} catch (Throwable e) {
+						fail(e);
+					}
+				}
+				while (!cancelled && requested.get() > 0) {
+					List<LandingEvent> next = buffer.poll();
+					if (next == null) {
+						break;
+					}
+					if (requested.get() != Long.MAX_VALUE) {
+						requested.decrementAndGet();
+					}
+					try {
+						subscriber.onNext(next);
+					} catch (Throwable e) {
+						fail(e);
+					}
+				}
+				if (!terminated && error.get() != null) {
+					terminated = true;
+					subscriber.onError(error.get());
+				} else if (!terminated && !cancelled && completed && buffer.isEmpty()) {
+					terminated = true;
+					cancel();
+					subscriber.onComplete();
+				}
+				missed = wip.addAndGet(-missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,246 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for LandingEventPublisher.
+ */
+
+public class LandingEventPublisherTest {
+
+	/**
+	 * Returns a sink that appends every event it receives to events.
+	 */
+	private static LandingEventSink recorder(List<LandingEvent> events) {
+		return new LandingEventSink() {
+			public void landed(long step, int beanId, int slot) {
+				events.add(new LandingEvent(LandingEvent.Kind.LANDED, step, beanId, slot));
+			}
+
+			public void slotsCleared(long step) {
+				events.add(new LandingEvent(LandingEvent.Kind.SLOTS_CLEARED, step, -1, -1));
+			}
+
+			public void halved(long step, boolean upper) {
+				events.add(new LandingEvent(upper ? LandingEvent.Kind.UPPER_HALF : LandingEvent.Kind.LOWER_HALF, step,
+						-1, -1));
+			}
+
+			@Override
+			public void stepped(long step) {
+				events.add(new LandingEvent(LandingEvent.Kind.STEPPED, step, -1, -1));
+			}
+		};
+	}
+
+	/**
+	 * A subscriber that requests batches one at a time, or all at once, and
+	 * collects them.
+	 */
+	private static class CollectingSubscriber implements LandingEventPublisher.Subscriber {
+		final List<List<LandingEvent>> batches = new ArrayList<>();
+		final CountDownLatch done = new CountDownLatch(1);
+		private final boolean unbounded;
+		private LandingEventPublisher.Subscription subscription;
+
+		CollectingSubscriber(boolean unbounded) {
+			this.unbounded = unbounded;
+		}
+
+		public void onSubscribe(LandingEventPublisher.Subscription s) {
+			subscription = s;
+			s.request(unbounded ? Long.MAX_VALUE : 1);
+		}
+
+		public void onNext(List<LandingEvent> batch) {
+			batches.add(batch);
+			if (!unbounded) {
+				subscription.request(1);
+			}
+		}
+
+		public void onError(Throwable error) {
+			done.countDown();
+		}
+
+		public void onComplete() {
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Test case for LandingEventPublisher. Preconditions: none. Execution
+	 * steps: Attach a recording sink and a publisher with batches of at most 4
+	 * events to a 6-slot machine through LandingEventSink.fanOut(), with an
+	 * unbounded BLOCK subscriber, a one-at-a-time BLOCK subscriber and a SAMPLE
+	 * subscriber with a 1-batch buffer on a paused executor; run the machine
+	 * with halving and repeating, then close the publisher. Invariants: both
+	 * BLOCK subscribers get every event the recording sink got, in order, in
+	 * batches of at most 4 events that only end early at a STEPPED event; the
+	 * SAMPLE subscriber gets the events that were not counted as dropped, and
+	 * all subscribers are completed.
+	 */
+	@Test
+	public void testLandingEventPublisher() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		ExecutorService paused = Executors.newSingleThreadExecutor();
+		CountDownLatch resume = new CountDownLatch(1);
+		try {
+			paused.execute(() -> {
+				try {
+					resume.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			LandingEventPublisher publisher = new LandingEventPublisher(4);
+			CollectingSubscriber all = new CollectingSubscriber(true);
+			CollectingSubscriber single = new CollectingSubscriber(false);
+			CollectingSubscriber sampled = new CollectingSubscriber(true);
+			publisher.subscribe(all, executor, 2, LandingEventPublisher.Overflow.BLOCK);
+			publisher.subscribe(single, executor, 2, LandingEventPublisher.Overflow.BLOCK);
+			publisher.subscribe(sampled, paused, 1, LandingEventPublisher.Overflow.SAMPLE);
+
+			List<LandingEvent> expected = new ArrayList<>();
+			BeanCounterLogicImpl machine = new BeanCounterLogicImpl(6);
+			machine.setEventSink(LandingEventSink.fanOut(recorder(expected), publisher));
+			machine.reset(BeanCounterLogicTest.seededBeans(6, 40, true, 49));
+			for (int i = 0; i < 10; i++) {
+				machine.advanceStep();
+			}
+			machine.upperHalf();
+			machine.runToCompletion();
+			machine.repeat();
+			while (machine.advanceStep()) {
+				// Step until all beans have landed
+			}
+			machine.lowerHalf();
+			publisher.close();
+			resume.countDown();
+
+			for (CollectingSubscriber subscriber : new CollectingSubscriber[] {all, single, sampled}) {
+				assertTrue("subscriber not completed", subscriber.done.await(10, TimeUnit.SECONDS));
+			}
+			for (CollectingSubscriber subscriber : new CollectingSubscriber[] {all, single}) {
+				List<LandingEvent> received = new ArrayList<>();
+				for (List<LandingEvent> batch : subscriber.batches) {
+					assertTrue("batch " + batch, batch.size() >= 1 && batch.size() <= 4);
+					if (batch.size() < 4 && batch != subscriber.batches.get(subscriber.batches.size() - 1)) {
+						assertEquals("batch " + batch, LandingEvent.Kind.STEPPED, batch.get(batch.size() - 1).kind);
+					}
+					received.addAll(batch);
+				}
+				assertEquals(expected.toString(), received.toString());
+			}
+			long sampledEvents = 0;
+			for (List<LandingEvent> batch : sampled.batches) {
+				sampledEvents += batch.size();
+			}
+			assertTrue("nothing dropped", publisher.getDroppedEventCount() > 0);
+			assertEquals(expected.size(), sampledEvents + publisher.getDroppedEventCount());
+		} finally {
+			resume.countDown();
+			executor.shutdownNow();
+			paused.shutdownNow();
+		}
+	}
+
+	/**
+	 * A subscriber that fails on its first batch, either by throwing an Error or
+	 * by making an invalid request, and records what it is told afterwards.
+	 */
+	private static class FailingSubscriber implements LandingEventPublisher.Subscriber {
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicInteger batches = new AtomicInteger();
+		volatile Throwable error;
+		volatile boolean completed;
+		volatile boolean overlapped;
+		private final boolean invalidRequest;
+		private final AtomicInteger active = new AtomicInteger();
+		private LandingEventPublisher.Subscription subscription;
+
+		FailingSubscriber(boolean invalidRequest) {
+			this.invalidRequest = invalidRequest;
+		}
+
+		public void onSubscribe(LandingEventPublisher.Subscription s) {
+			subscription = s;
+			s.request(Long.MAX_VALUE);
+		}
+
+		public void onNext(List<LandingEvent> batch) {
+			overlapped |= active.incrementAndGet() > 1;
+			batches.incrementAndGet();
+			if (!invalidRequest) {
+				active.decrementAndGet();
+				throw new AssertionError("subscriber failed");
+			}
+			subscription.request(0);
+			try {
+				// Give an error delivered outside the drain time to overlap
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			active.decrementAndGet();
+		}
+
+		public void onError(Throwable e) {
+			overlapped |= active.incrementAndGet() > 1;
+			error = e;
+			active.decrementAndGet();
+			done.countDown();
+		}
+
+		public void onComplete() {
+			completed = true;
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Test case for failing subscribers. Preconditions: none. Execution steps:
+	 * Subscribe, with BLOCK overflow and a 1-batch buffer, a subscriber that
+	 * throws an Error from onNext() and one that calls request(0) from onNext();
+	 * run a machine to the end and close the publisher. Invariants: the
+	 * simulation thread is not blocked, each subscriber gets one batch and then
+	 * onError() with its failure, never at the same time as onNext(), and never
+	 * onComplete().
+	 */
+	@Test(timeout = 20000)
+	public void testFailingSubscribers() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			for (boolean invalidRequest : new boolean[] {false, true}) {
+				LandingEventPublisher publisher = new LandingEventPublisher(4);
+				FailingSubscriber subscriber = new FailingSubscriber(invalidRequest);
+				publisher.subscribe(subscriber, executor, 1, LandingEventPublisher.Overflow.BLOCK);
+				BeanCounterLogicImpl machine = new BeanCounterLogicImpl(6);
+				machine.setEventSink(publisher);
+				machine.reset(BeanCounterLogicTest.seededBeans(6, 40, true, 49));
+				while (machine.advanceStep()) {
+					// Step until all beans have landed
+				}
+				publisher.close();
+
+				assertTrue("no onError", subscriber.done.await(10, TimeUnit.SECONDS));
+				assertEquals(1, subscriber.batches.get());
+				assertTrue("error " + subscriber.error, invalidRequest
+						? subscriber.error instanceof IllegalArgumentException
+						: subscriber.error instanceof AssertionError);
+				assertFalse("onError overlapped onNext", subscriber.overlapped);
+				assertFalse("onComplete after onError", subscriber.completed);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
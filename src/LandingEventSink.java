@@ -0,0 +1,79 @@
+/**
+ * LandingEventSink: Receives the events that change the slots of a
+ * BeanCounterLogicImpl. A step is the number of advanceStep() calls made since
+ * the sink was attached (runToCompletion() counts the steps it skips), so every
+ * event can be placed on one timeline.
+ */
+
+public interface LandingEventSink {
+	/**
+	 * A bean landed in a slot.
+	 *
+	 * @param step   the step during which the bean landed
+	 * @param beanId the index of the bean in the array passed to reset()
+	 * @param slot   the slot the bean landed in
+	 */
+	public void landed(long step, int beanId, int slot);
+
+	/**
+	 * All slots were emptied by reset() or repeat().
+	 *
+	 * @param step the number of steps taken so far
+	 */
+	public void slotsCleared(long step);
+
+	/**
+	 * upperHalf() or lowerHalf() was called.
+	 *
+	 * @param step  the number of steps taken so far
+	 * @param upper true for upperHalf(), false for lowerHalf()
+	 */
+	public void halved(long step, boolean upper);
+
+	/**
+	 * advanceStep() finished a step, or runToCompletion() finished all of its
+	 * steps at once. Sinks that only follow the slots can ignore this.
+	 *
+	 * @param step the number of steps taken so far
+	 */
+	public default void stepped(long step) {
+	}
+
+	/**
+	 * Returns a sink that passes every event on to each of the given sinks, in
+	 * order, so that more than one sink can be attached to a logic (for example
+	 * a LandingLog and a LandingEventPublisher).
+	 *
+	 * @param sinks the sinks to pass the events to
+	 * @return the combined sink
+	 */
+	public static LandingEventSink fanOut(LandingEventSink... sinks) {
+		final LandingEventSink[] targets = sinks.clone();
+		return new LandingEventSink() {
+			public void landed(long step, int beanId, int slot) {
+				for (LandingEventSink sink : targets) {
+					sink.landed(step, beanId, slot);
+				}
+			}
+
+			public void slotsCleared(long step) {
+				for (LandingEventSink sink : targets) {
+					sink.slotsCleared(step);
+				}
+			}
+
+			public void halved(long step, boolean upper) {
+				for (LandingEventSink sink : targets) {
+					sink.halved(step, upper);
+				}
+			}
+
+			@Override
+			public void stepped(long step) {
+				for (LandingEventSink sink : targets) {
+					sink.stepped(step);
+				}
+			}
+		};
+	}
+}
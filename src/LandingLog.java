@@ -0,0 +1,308 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * LandingLog: An append-only, memory-mapped log of the events that change the
+ * slots of a BeanCounterLogicImpl, plus a replay reader that rebuilds the slot
+ * bean counts at any step.
+ *
+ * <p>
+ * The log is a directory of segment files named landing-00000000.log,
+ * landing-00000001.log, and so on. Each segment is mapped into memory when it
+ * is created and holds a fixed number of records. When a segment is full it is
+ * forced to disk and the next one is mapped. A segment starts with a header:
+ *
+ * <pre>
+ * int magic, int version, long step of the first record, long record count,
+ * int checkpoint length n, int padding, n ints: slot bean counts at the start
+ * </pre>
+ *
+ * <p>
+ * The checkpoint holds the slot bean counts before the first record of the
+ * segment (slots above the highest one seen so far are left out, since they
+ * are empty). To rebuild a step, replay() finds the last segment starting at
+ * or before it by binary search over the segment headers, then applies only
+ * that segment's records to its checkpoint, so a lookup reads at most one
+ * segment however long the log is.
+ *
+ * <p>
+ * The header is followed by 16-byte records:
+ *
+ * <pre>
+ * long step, int bean id, int slot (or SLOTS_CLEARED / UPPER_HALF / LOWER_HALF)
+ * </pre>
+ *
+ * <p>
+ * The record count in the header is updated after every append, so a reader
+ * never sees a half-written record, even from a log whose writer crashed.
+ */
+
+public class LandingLog implements LandingEventSink, Closeable {
+	static final int SLOTS_CLEARED = -1;
+	static final int UPPER_HALF = -2;
+	static final int LOWER_HALF = -3;
+
+	private static final int MAGIC = 0x4245414E; // "BEAN"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 32;
+	private static final int RECORD_SIZE = 16;
+	private static final int FIRST_STEP_OFFSET = 8;
+	private static final int COUNT_OFFSET = 16;
+	private static final int CHECKPOINT_OFFSET = 24;
+
+	/** Default number of records per segment (16 MB segments). */
+	public static final int DEFAULT_SEGMENT_RECORDS = 1 << 20;
+
+	private final File dir;
+	private final int segmentRecords;
+	private int segmentIndex = -1;
+	private MappedByteBuffer segment;
+	private int recordsOffset;		// Where the records of the current segment start
+	private long recordCount;
+	private int[] counts = new int[0];	// Slot bean counts after the last record
+
+	/**
+	 * Constructor - starts a new log in dir. Existing segments in dir, including
+	 * those of an earlier, longer log, are deleted.
+	 *
+	 * @param dir            the directory to write segments to
+	 * @param segmentRecords the number of records per segment
+	 * @throws IOException if the directory or first segment cannot be created
+	 */
+	public LandingLog(File dir, int segmentRecords) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("cannot create " + dir);
+		}
+		this.dir = dir;
+		this.segmentRecords = segmentRecords;
+		File[] old = dir.listFiles((d, name) -> name.matches("landing-\\d{8}\\.log"));
+		if (old != null) {
+			for (File f : old) {
+				if (!f.delete()) {
+					throw new IOException("cannot delete old segment " + f);
+				}
+			}
+		}
+		nextSegment();
+	}
+
+	private static File segmentFile(File dir, int index) {
+		return new File(dir, String.format("landing-%08d.log", index));
+	}
+
+	private void nextSegment() throws IOException {
+		if (segment != null) {
+			segment.force();
+		}
+		segmentIndex++;
+		recordsOffset = HEADER_SIZE + counts.length * 4;
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile(dir, segmentIndex), "rw")) {
+			long size = recordsOffset + (long) segmentRecords * RECORD_SIZE;
+			file.setLength(size);
+			segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		segment.putInt(0, MAGIC);
+		segment.putInt(4, VERSION);
+		segment.putLong(FIRST_STEP_OFFSET, Long.MAX_VALUE);
+		segment.putLong(COUNT_OFFSET, 0);
+		segment.putInt(CHECKPOINT_OFFSET, counts.length);
+		for (int i = 0; i < counts.length; i++) {
+			segment.putInt(HEADER_SIZE + i * 4, counts[i]);
+		}
+		recordCount = 0;
+	}
+
+	private void append(long step, int beanId, int slot) {
+		if (recordCount == segmentRecords) {
+			try {
+				nextSegment();
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot roll landing log segment", e);
+			}
+		}
+		if (recordCount == 0) {
+			segment.putLong(FIRST_STEP_OFFSET, step);
+		}
+		int pos = recordsOffset + (int) recordCount * RECORD_SIZE;
+		segment.putLong(pos, step);
+		segment.putInt(pos + 8, beanId);
+		segment.putInt(pos + 12, slot);
+		recordCount++;
+		segment.putLong(COUNT_OFFSET, recordCount);
+		if (slot >= counts.length) {
+			counts = Arrays.copyOf(counts, slot + 1);
+		}
+		apply(counts, slot);
+	}
+
+	/**
+	 * Applies the record with the given slot field to slot bean counts.
+	 */
+	private static void apply(int[] counts, int slot) {
+		if (slot >= 0) {
+			counts[slot]++;
+		} else if (slot == SLOTS_CLEARED) {
+			Arrays.fill(counts, 0);
+		} else {
+			halve(counts, slot == UPPER_HALF);
+		}
+	}
+
+	public void landed(long step, int beanId, int slot) {
+		append(step, beanId, slot);
+	}
+
+	public void slotsCleared(long step) {
+		append(step, -1, SLOTS_CLEARED);
+	}
+
+	public void halved(long step, boolean upper) {
+		append(step, -1, upper ? UPPER_HALF : LOWER_HALF);
+	}
+
+	/**
+	 * Forces the current segment to disk.
+	 */
+	public void close() {
+		segment.force();
+	}
+
+	/**
+	 * Maps a segment of a log for reading and checks its header.
+	 */
+	private static ByteBuffer readSegment(File dir, int index) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile(dir, index), "r")) {
+			ByteBuffer buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+				throw new IOException(segmentFile(dir, index) + " is not a landing log segment");
+			}
+			return buf;
+		}
+	}
+
+	/**
+	 * Rebuilds the slot bean counts as they were after the given step, i.e. after
+	 * step advanceStep() calls and every other operation before the next one.
+	 * Only the segment holding the step is read past its header.
+	 *
+	 * @param dir       the log directory
+	 * @param slotCount the number of slots in the machine
+	 * @param step      the step to rebuild
+	 * @return the bean count of each slot
+	 * @throws IOException              if a segment cannot be read
+	 * @throws IllegalArgumentException if the log has beans in slots at or above
+	 *                                  slotCount
+	 */
+	public static int[] replay(File dir, int slotCount, long step) throws IOException {
+		int segments = 0;
+		while (segmentFile(dir, segments).exists()) {
+			segments++;
+		}
+		// The last segment whose first record is at or before the step; segment 0
+		// starts from empty slots, so it is the answer if there is no such segment
+		int low = 0;
+		int high = segments - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			ByteBuffer header = readSegment(dir, mid);
+			if (header.getLong(COUNT_OFFSET) > 0 && header.getLong(FIRST_STEP_OFFSET) <= step) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		int[] counts = new int[slotCount];
+		if (segments == 0) {
+			return counts;
+		}
+		ByteBuffer buf = readSegment(dir, low);
+		int checkpoint = buf.getInt(CHECKPOINT_OFFSET);
+		if (checkpoint > slotCount) {
+			throw new IllegalArgumentException(
+					"slot count " + slotCount + " is less than the " + checkpoint + " slots in the log's checkpoint");
+		}
+		for (int i = 0; i < checkpoint; i++) {
+			counts[i] = buf.getInt(HEADER_SIZE + i * 4);
+		}
+		int offset = HEADER_SIZE + checkpoint * 4;
+		long records = buf.getLong(COUNT_OFFSET);
+		for (long r = 0; r < records; r++) {
+			int pos = offset + (int) r * RECORD_SIZE;
+			if (buf.getLong(pos) > step) {
+				break;
+			}
+			if (buf.getInt(pos + 12) >= slotCount) {
+				throw new IllegalArgumentException("slot count " + slotCount + " is too small for a bean landed in slot "
+						+ buf.getInt(pos + 12) + " at step " + buf.getLong(pos));
+			}
+			apply(counts, buf.getInt(pos + 12));
+		}
+		return counts;
+	}
+
+	/**
+	 * Applies upperHalf() or lowerHalf() to slot counts: removes half of the
+	 * beans (rounded down) starting from the low or the high end.
+	 */
+	private static void halve(int[] counts, boolean upper) {
+		int remove = 0;
+		for (int c : counts) {
+			remove += c;
+		}
+		remove /= 2;
+		for (int k = 0; k < counts.length && remove > 0; k++) {
+			int i = upper ? k : counts.length - 1 - k;
+			int taken = Math.min(remove, counts[i]);
+			counts[i] -= taken;
+			remove -= taken;
+		}
+	}
+
+	/**
+	 * Prints usage information.
+	 */
+	public static void showUsage() {
+		System.out.println("Usage: java LandingLog log_dir slot_count step");
+		System.out.println("Example: java LandingLog landings 10 250");
+	}
+
+	/**
+	 * Main method. Prints the slot bean counts rebuilt from a log at a step.
+	 *
+	 * @param args commandline arguments; see showUsage() for detailed information
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			showUsage();
+			return;
+		}
+		int slotCount;
+		long step;
+		try {
+			slotCount = Integer.parseInt(args[1]);
+			step = Long.parseLong(args[2]);
+		} catch (NumberFormatException ne) {
+			showUsage();
+			return;
+		}
+		int[] counts;
+		try {
+			counts = replay(new File(args[0]), slotCount, step);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		StringBuilder bld = new StringBuilder();
+		for (int count : counts) {
+			bld.append(String.format("%4d", count));
+		}
+		System.out.println("Slot bean counts at step " + step + ":");
+		System.out.println(bld);
+	}
+}
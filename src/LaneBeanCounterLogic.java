@@ -0,0 +1,298 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * LaneBeanCounterLogic: A luck-mode-only engine that keeps the in-flight beans
+ * in primitive lanes (one lane per row) instead of BeanImpl objects.
+ *
+ * <p>
+ * In luck mode the in-flight beans are independent of each other, so one step
+ * is the same arithmetic on every lane. Each lane holds the direction of its
+ * bean and the state of the bean's random number generator. The state is
+ * advanced with the linear congruential formula that java.util.Random is
+ * specified to use, and the "go right" bit is the bit that Random.nextInt(2)
+ * returns. The lane update is branch-free over plain arrays so that HotSpot can
+ * vectorize it.
+ *
+ * <p>
+ * Because the lanes replay the exact bit stream of each bean's Random, a
+ * machine reset with reset(long[] seeds) shows the same getInFlightBeanXPos and
+ * getSlotBeanCount results after every operation as a BeanCounterLogicImpl
+ * reset with luck-mode beans created as new BeanImpl(slotCount, true, new
+ * Random(seeds[i])).
+ */
+
+public class LaneBeanCounterLogic implements BeanCounterLogic {
+	// The java.util.Random LCG parameters (see the Random class documentation)
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+	private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+	private final int slotCount;
+	private final int[] laneDirs;	// Direction of the bean in each row, or NO_BEAN_IN_YPOS
+	private final long[] laneSeeds;	// Random state of the bean in each row
+	private final SeedQueue remaining = new SeedQueue();
+	private final SeedQueue[] slots;
+	private final Random seeder = new Random();
+
+	/**
+	 * Constructor - creates the lane engine with the provided number of slots.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 */
+	public LaneBeanCounterLogic(int slotCount) {
+		this.slotCount = slotCount;
+		laneDirs = new int[slotCount];
+		laneSeeds = new long[slotCount];
+		Arrays.fill(laneDirs, NO_BEAN_IN_YPOS);
+		slots = new SeedQueue[slotCount];
+		for (int i = 0; i < slotCount; i++) {
+			slots[i] = new SeedQueue();
+		}
+	}
+
+	/**
+	 * Returns the state of a new Random(seed) after a BeanImpl constructor has
+	 * drawn the bean's skill with nextGaussian().
+	 *
+	 * @param seed the seed passed to the bean's Random
+	 * @return the LCG state
+	 */
+	static long beanState(long seed) {
+		long s = (seed ^ MULTIPLIER) & MASK;
+		double v1;
+		double v2;
+		double r;
+		do {
+			s = (s * MULTIPLIER + ADDEND) & MASK;
+			long a = s >>> (48 - 26);
+			s = (s * MULTIPLIER + ADDEND) & MASK;
+			long b = s >>> (48 - 27);
+			v1 = 2 * (((a << 27) + b) * DOUBLE_UNIT) - 1;
+			s = (s * MULTIPLIER + ADDEND) & MASK;
+			a = s >>> (48 - 26);
+			s = (s * MULTIPLIER + ADDEND) & MASK;
+			b = s >>> (48 - 27);
+			v2 = 2 * (((a << 27) + b) * DOUBLE_UNIT) - 1;
+			r = v1 * v1 + v2 * v2;
+		} while (r >= 1 || r == 0);
+		return s;
+	}
+
+	/**
+	 * A hard reset with luck-mode beans whose Random objects were created from
+	 * the given seeds.
+	 *
+	 * @param seeds the seed of each bean's Random, in bean order
+	 */
+	public void reset(long[] seeds) {
+		clearMachine();
+		for (long seed : seeds) {
+			remaining.add(beanState(seed));
+		}
+		insertBeanAtTop();
+	}
+
+	/**
+	 * A hard reset. The state of a bean's Random cannot be read back, so the
+	 * seeds of the passed beans are not kept: each bean gets a new seed from this
+	 * engine's own unseeded Random. The run therefore differs from a
+	 * BeanCounterLogicImpl reset with the same beans and cannot be reproduced;
+	 * use reset(long[] seeds) for that. All beans must be unbiased luck-mode
+	 * BeanImpl objects.
+	 *
+	 * @param beans array of beans to add to the machine
+	 * @throws IllegalArgumentException if a bean is in skill or biased mode
+	 */
+	public void reset(Bean[] beans) {
+		clearMachine();
+		if (beans == null) {
+			return;
+		}
+		for (Bean bean : beans) {
+			BeanImpl b = (BeanImpl) bean;
+			if (!b.isLuck() || b.isBiased()) {
+				throw new IllegalArgumentException("LaneBeanCounterLogic only supports unbiased luck mode");
+			}
+			remaining.add(beanState(seeder.nextLong()));
+		}
+		insertBeanAtTop();
+	}
+
+	private void clearMachine() {
+		remaining.clear();
+		for (int i = 0; i < slotCount; i++) {
+			laneDirs[i] = NO_BEAN_IN_YPOS;
+			slots[i].clear();
+		}
+	}
+
+	private void insertBeanAtTop() {
+		if (remaining.size() > 0) {
+			laneSeeds[0] = remaining.poll();
+			laneDirs[0] = 0;
+		} else {
+			laneDirs[0] = NO_BEAN_IN_YPOS;
+		}
+	}
+
+	public int getRemainingBeanCount() {
+		return remaining.size();
+	}
+
+	public int getInFlightBeanXPos(int yPos) {
+		return laneDirs[yPos];
+	}
+
+	public int getSlotBeanCount(int i) {
+		return slots[i].size();
+	}
+
+	/**
+	 * Calculates the average slot number of all the beans in slots.
+	 *
+	 * @return Average slot number of all the beans in slots.
+	 */
+	public double getAverageSlotBeanCount() {
+		double sum = 0;
+		int count = 0;
+		for (int i = 0; i < slotCount; i++) {
+			sum += (double) i * slots[i].size();
+			count += slots[i].size();
+		}
+		return count == 0 ? 0 : sum / count;
+	}
+
+	/**
+	 * Removes the lower half of all beans currently in slots, keeping only the
+	 * upper half.
+	 */
+	public void upperHalf() {
+		int remove = countSlotBeans() / 2;
+		for (int i = 0; i < slotCount && remove > 0; i++) {
+			remove -= slots[i].removeFirst(remove);
+		}
+	}
+
+	/**
+	 * Removes the upper half of all beans currently in slots, keeping only the
+	 * lower half.
+	 */
+	public void lowerHalf() {
+		int remove = countSlotBeans() / 2;
+		for (int i = slotCount - 1; i >= 0 && remove > 0; i--) {
+			remove -= slots[i].removeFirst(remove);
+		}
+	}
+
+	private int countSlotBeans() {
+		int sum = 0;
+		for (int i = 0; i < slotCount; i++) {
+			sum += slots[i].size();
+		}
+		return sum;
+	}
+
+	/**
+	 * Repeats the experiment by scooping up all beans in the slots and all beans
+	 * in-flight, in the same order as BeanCounterLogicImpl.
+	 */
+	public void repeat() {
+		for (int i = 0; i < slotCount; i++) {
+			slots[i].drainTo(remaining);
+			if (laneDirs[i] != NO_BEAN_IN_YPOS) {
+				remaining.add(laneSeeds[i]);
+				laneDirs[i] = NO_BEAN_IN_YPOS;
+			}
+		}
+		insertBeanAtTop();
+	}
+
+	/**
+	 * Advances the machine one step.
+	 *
+	 * @return whether there has been any status change
+	 */
+	public boolean advanceStep() {
+		int last = slotCount - 1;
+		boolean statusChange = false;
+		if (laneDirs[last] != NO_BEAN_IN_YPOS) {
+			slots[laneDirs[last]].add(laneSeeds[last]);
+			statusChange = true;
+		}
+		// Every occupied lane above the last row hits a peg: advance its LCG one
+		// draw and add the nextInt(2) bit to its direction. Empty lanes (-1) keep
+		// their state through the occupancy mask.
+		for (int y = 0; y < last; y++) {
+			int dir = laneDirs[y];
+			long occupied = ~((long) dir >> 31);
+			long seed = laneSeeds[y];
+			long next = (seed * MULTIPLIER + ADDEND) & MASK;
+			laneSeeds[y] = seed ^ ((seed ^ next) & occupied);
+			laneDirs[y] = dir + (int) ((next >>> 47) & occupied);
+			statusChange |= occupied != 0;
+		}
+		// Everyone falls down one row
+		System.arraycopy(laneDirs, 0, laneDirs, 1, last);
+		System.arraycopy(laneSeeds, 0, laneSeeds, 1, last);
+		insertBeanAtTop();
+		return statusChange;
+	}
+
+	/**
+	 * A FIFO queue of bean random states backed by a circular long array.
+	 */
+	private static final class SeedQueue {
+		private long[] elements = new long[16];
+		private int head;
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		void add(long seed) {
+			if (size == elements.length) {
+				long[] grown = new long[elements.length * 2];
+				int firstPart = elements.length - head;
+				System.arraycopy(elements, head, grown, 0, firstPart);
+				System.arraycopy(elements, 0, grown, firstPart, head);
+				elements = grown;
+				head = 0;
+			}
+			elements[(head + size) % elements.length] = seed;
+			size++;
+		}
+
+		long poll() {
+			long seed = elements[head];
+			head = (head + 1) % elements.length;
+			size--;
+			return seed;
+		}
+
+		/**
+		 * Removes up to count beans from the front.
+		 *
+		 * @return the number of beans removed
+		 */
+		int removeFirst(int count) {
+			int removed = Math.min(count, size);
+			head = (head + removed) % elements.length;
+			size -= removed;
+			return removed;
+		}
+
+		void clear() {
+			head = 0;
+			size = 0;
+		}
+
+		void drainTo(SeedQueue dst) {
+			while (size > 0) {
+				dst.add(poll());
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Unit tests for LaneBeanCounterLogic.
+ */
+
+public class LaneBeanCounterLogicTest {
+
+	/**
+	 * Returns luck-mode beans whose Randoms are created from the given seeds.
+	 */
+	private static Bean[] luckBeans(int slots, long[] seeds) {
+		Bean[] beans = new Bean[seeds.length];
+		for (int i = 0; i < seeds.length; i++) {
+			beans[i] = new BeanImpl(slots, true, new Random(seeds[i]));
+		}
+		return beans;
+	}
+
+	private static long[] randomSeeds(Random rand, int count) {
+		long[] seeds = new long[count];
+		for (int i = 0; i < count; i++) {
+			seeds[i] = rand.nextLong();
+		}
+		return seeds;
+	}
+
+	/**
+	 * Test case for the equivalence of LaneBeanCounterLogic and
+	 * BeanCounterLogicImpl. Preconditions: none. Execution steps: For 1-12 slots,
+	 * reset a lane engine with bean seeds and a BeanCounterLogicImpl with
+	 * luck-mode beans whose Randoms are created from the same seeds, then apply
+	 * the same random sequence of advanceStep(), upperHalf(), lowerHalf(),
+	 * repeat() and reset() to both. Invariants: after every operation both
+	 * machines have the same in-flight positions, slot bean counts and remaining
+	 * bean count, and advanceStep() returns the same value.
+	 */
+	@Test
+	public void testSameAsBeanCounterLogicImpl() {
+		Random rand = new Random(31);
+		for (int slots = 1; slots <= 12; slots++) {
+			for (int run = 0; run < 20; run++) {
+				LaneBeanCounterLogic lanes = new LaneBeanCounterLogic(slots);
+				BeanCounterLogicImpl impl = new BeanCounterLogicImpl(slots);
+				long[] seeds = randomSeeds(rand, rand.nextInt(30));
+				lanes.reset(seeds);
+				impl.reset(luckBeans(slots, seeds));
+				String trace = "slots=" + slots + ", " + seeds.length + " beans: reset";
+				assertEquals(trace, BeanCounterLogicTest.describe(impl, slots),
+						BeanCounterLogicTest.describe(lanes, slots));
+				for (int op = 0; op < 200; op++) {
+					int choice = rand.nextInt(40);
+					if (choice == 0) {
+						lanes.upperHalf();
+						impl.upperHalf();
+						trace += ", upperHalf";
+					} else if (choice == 1) {
+						lanes.lowerHalf();
+						impl.lowerHalf();
+						trace += ", lowerHalf";
+					} else if (choice == 2) {
+						lanes.repeat();
+						impl.repeat();
+						trace += ", repeat";
+					} else if (choice == 3) {
+						seeds = randomSeeds(rand, rand.nextInt(30));
+						lanes.reset(seeds);
+						impl.reset(luckBeans(slots, seeds));
+						trace += ", reset(" + seeds.length + ")";
+					} else {
+						assertEquals(trace + ", advanceStep", impl.advanceStep(), lanes.advanceStep());
+						trace += ", step";
+					}
+					assertEquals(trace, BeanCounterLogicTest.describe(impl, slots),
+							BeanCounterLogicTest.describe(lanes, slots));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test case for void reset(Bean[]). Preconditions: none. Execution steps:
+	 * Reset a lane engine with skill-mode beans and with biased beans.
+	 * Invariants: both are rejected with IllegalArgumentException.
+	 */
+	@Test
+	public void testResetRejectsSkillAndBiasedBeans() {
+		LaneBeanCounterLogic lanes = new LaneBeanCounterLogic(5);
+		Bean[][] populations = {
+			{new BeanImpl(5, false, new Random(1))},
+			{new BeanImpl(5, PegBias.uniform(5, 0.3), new Random(1))},
+		};
+		for (Bean[] beans : populations) {
+			try {
+				lanes.reset(beans);
+				fail("accepted " + beans[0]);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
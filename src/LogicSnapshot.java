@@ -0,0 +1,38 @@
+/**
+ * LogicSnapshot: A consistent copy of the observable state of a
+ * BeanCounterLogic, filled by BeanCounterLogic.snapshot(). A snapshot is meant
+ * to be allocated once and refilled, so taking one does not allocate.
+ */
+
+public class LogicSnapshot {
+	public final int[] inFlightXPos;	// x-position of the bean in each row, or NO_BEAN_IN_YPOS
+	public final int[] slotBeanCounts;	// Bean count of each slot
+	public int remainingBeanCount;
+	public long version;				// Version stamp of the state, or -1 if not versioned
+
+	/**
+	 * Constructor - creates an empty snapshot.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 */
+	public LogicSnapshot(int slotCount) {
+		inFlightXPos = new int[slotCount];
+		slotBeanCounts = new int[slotCount];
+	}
+
+	/**
+	 * Calculates the average slot number of the beans in slots, like
+	 * getAverageSlotBeanCount().
+	 *
+	 * @return the average slot number, or 0 if the slots are empty
+	 */
+	public double getAverageSlotBeanCount() {
+		double sum = 0;
+		int count = 0;
+		for (int i = 0; i < slotBeanCounts.length; i++) {
+			sum += (double) i * slotBeanCounts[i];
+			count += slotBeanCounts[i];
+		}
+		return count == 0 ? 0 : sum / count;
+	}
+}
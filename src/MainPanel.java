@@ -3,6 +3,7 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.text.DecimalFormat;
 import java.util.Arrays;
 import java.util.Random;
@@ -15,6 +16,13 @@ import javax.swing.JPanel;
  * <p>MainPanel: This is the display for the machine. Most internal state is
  * encapsulated inside _logic. This class mainly handles the display of that
  * internal state animations between frames.
+ *
+ * <p>Animation frames only repaint what changed: the bounding boxes of the
+ * beans that moved, the bar of a slot that got a bean, and the statistics.
+ * These are collected in dirty and handed to repaint(Rectangle) by
+ * repaintDirty(), and the draw methods skip everything outside the clip.
+ * Actions that change the whole machine (reset, repeat, halving, scrubbing)
+ * still repaint the whole panel.
  */
 
 public class MainPanel extends JPanel {
@@ -24,20 +32,33 @@ public class MainPanel extends JPanel {
 
 	private Point[] beanPositions;		// Current bean positions in physical coordinates
 	private Point[] targetPositions;	// Target positions that the beans need to move to
+	private Point[] startPositions;		// Bean positions when the current step started moving
+	private long stepStartTime;			// System.nanoTime() when the current step started moving
 
 	private int timeBetweenFrames;		// Time (ms) between bean movement animation frames
+	private int timeOfStep;				// Time (ms) that the beans take to move in one step
 	private int timeBetweenSteps;		// Time (ms) that is paused before executing the next step
 
 	private boolean isRunning;			// Is the bean counter running now?
 
 	private int barHeight;				// The height reserved for bar graphs in the panel
 
+	private Timeline timeline;			// Recent history of the machine for scrubbing
+	private TimelineSlider scrubber;	// The slider that shows the timeline, if any
+	private boolean isScrubbing;		// Are we showing a past frame instead of the live machine?
+	private int[] scrubInFlight;		// In-flight x-positions of the frame being shown
+	private int[] scrubSlots;			// Slot bean counts of the frame being shown
+	private int scrubRemaining;			// Remaining bean count of the frame being shown
+	private LogicSnapshot live;			// Latest state of the live machine, taken in one call
+	private Rectangle dirty;			// Area to repaint for the next frame, or null if none
+
 	public static final int SLOT_COUNT = 10;
 	public static final int PEG_SIZE = 10;
 	public static final int BEAN_SIZE = 10;
 	public static final int TOP_MARGIN = 30;
 	public static final int BOTTOM_MARGIN = 30;
 	public static final int BAR_TEXT_HEIGHT = 20;
+	public static final int TIMELINE_FRAMES = 4096;
 
 	/**
 	 * Constructor - creates the main animation panel for the machine.
@@ -57,8 +78,15 @@ public class MainPanel extends JPanel {
 		}
 		// Initialize the logic with the beans
 		logic.reset(beans);
+		// Start recording the timeline
+		timeline = new Timeline(SLOT_COUNT, TIMELINE_FRAMES);
+		scrubInFlight = new int[SLOT_COUNT];
+		scrubSlots = new int[SLOT_COUNT];
+		live = new LogicSnapshot(SLOT_COUNT);
+		timeline.record(logic);
 		// Set some display related parameters
 		timeBetweenFrames = 10;
+		timeOfStep = 500;
 		timeBetweenSteps = 100;
 		// Heuristically maximum height of a bell curve with some headroom
 		barHeight = (int) Math.round(beanCount * 0.27) + 10; 
@@ -66,30 +94,18 @@ public class MainPanel extends JPanel {
 	}
 
 	/**
-	 * Move a bean one pixel from p to q.
+	 * Move a bean to where it is a fraction of the way from p to q. The position
+	 * only depends on the fraction, so frames that could not be painted in time
+	 * are simply skipped.
 	 * 
-	 * @param p current position of the bean
-	 * @param q target position of the bean
-	 * @return whether current position already equals target position
+	 * @param bean     the bean position to update
+	 * @param p        position of the bean when the step started
+	 * @param q        target position of the bean
+	 * @param fraction how far the bean has moved, from 0 to 1
 	 */
-	private boolean moveOnePixel(Point p, Point q) {
-		boolean arrivedX = false;
-		boolean arrivedY = false;
-		if (p.x > q.x) {
-			p.x--;
-		} else if (p.x < q.x) {
-			p.x++;
-		} else {
-			arrivedX = true;
-		}
-		if (p.y > q.y) {
-			p.y--;
-		} else if (p.y < q.y) {
-			p.y++;
-		} else {
-			arrivedY = true;
-		}
-		return arrivedX && arrivedY;
+	private void interpolate(Point bean, Point p, Point q, double fraction) {
+		bean.x = p.x + (int) Math.round((q.x - p.x) * fraction);
+		bean.y = p.y + (int) Math.round((q.y - p.y) * fraction);
 	}
 
 	/**
@@ -113,6 +129,60 @@ public class MainPanel extends JPanel {
 		return new Point(physicalX, physicalY);
 	}
 
+	/**
+	 * Returns the area covered by the bar and label of slot i when it holds count
+	 * beans.
+	 */
+	private Rectangle barBounds(int i, int count) {
+		Dimension d = getSize();
+		Point p = logicalToPhysical(new Point(i, SLOT_COUNT));
+		int top = d.height - BOTTOM_MARGIN - BAR_TEXT_HEIGHT - count;
+		return new Rectangle(p.x, top - 1, d.width / (SLOT_COUNT + 1) + 1, d.height - top + 1);
+	}
+
+	/**
+	 * Returns the area covered by the bars and labels of all slots.
+	 */
+	private Rectangle slotsBounds() {
+		Dimension d = getSize();
+		int top = d.height - BOTTOM_MARGIN - BAR_TEXT_HEIGHT - barHeight;
+		return new Rectangle(0, top, d.width, d.height - top);
+	}
+
+	/**
+	 * Returns the area covered by the statistics text.
+	 */
+	private Rectangle statsBounds() {
+		Dimension d = getSize();
+		return new Rectangle(d.width - 200, 0, 200, TOP_MARGIN + 70);
+	}
+
+	/**
+	 * Adds r to the area to repaint for the next frame.
+	 */
+	private void markDirty(Rectangle r) {
+		dirty = dirty == null ? r : dirty.union(r);
+	}
+
+	/**
+	 * Adds the bounding box of a bean at p, if any, to the area to repaint.
+	 */
+	private void markBean(Point p) {
+		if (p != null) {
+			markDirty(new Rectangle(p.x - 1, p.y - 1, BEAN_SIZE + 2, BEAN_SIZE + 2));
+		}
+	}
+
+	/**
+	 * Requests a repaint of the area collected since the last call.
+	 */
+	private void repaintDirty() {
+		if (dirty != null) {
+			repaint(dirty);
+			dirty = null;
+		}
+	}
+
 	/**
 	 * Calculates all the in-flight bean positions (in physical coordinates) from
 	 * _logic.
@@ -121,8 +191,12 @@ public class MainPanel extends JPanel {
 	 */
 	private Point[] getBeanPositions() {
 		Point[] positions = new Point[SLOT_COUNT];
+		if (!isScrubbing) {
+			logic.snapshot(live);
+		}
+		int[] inFlight = isScrubbing ? scrubInFlight : live.inFlightXPos;
 		for (int yPos = 0; yPos < SLOT_COUNT; yPos++) {
-			int xPos = logic.getInFlightBeanXPos(yPos);
+			int xPos = inFlight[yPos];
 			if (xPos != BeanCounterLogic.NO_BEAN_IN_YPOS) {
 				positions[yPos] = logicalToPhysical(new Point(xPos, yPos));
 				positions[yPos].y -= PEG_SIZE + 5;
@@ -133,20 +207,91 @@ public class MainPanel extends JPanel {
 		return positions;
 	}
 
+	/**
+	 * Records the current state of the machine on the timeline and moves the
+	 * scrubber to it.
+	 */
+	private void recordFrame() {
+		timeline.record(logic);
+		if (scrubber != null) {
+			scrubber.timelineChanged(timeline.getFirstFrame(), timeline.getLastFrame());
+		}
+	}
+
+	/**
+	 * Stops showing a past frame and goes back to the live machine.
+	 */
+	private void goLive() {
+		if (isScrubbing) {
+			isScrubbing = false;
+			beanPositions = getBeanPositions();
+			// The whole machine changes back, not just the dirty regions
+			repaint();
+			if (scrubber != null) {
+				scrubber.timelineChanged(timeline.getFirstFrame(), timeline.getLastFrame());
+			}
+		}
+	}
+
+	public void setTimelineSlider(TimelineSlider slider) {
+		scrubber = slider;
+		scrubber.timelineChanged(timeline.getFirstFrame(), timeline.getLastFrame());
+	}
+
+	/**
+	 * Show a past frame of the machine. Stops the machine; the next step or run
+	 * continues from the live machine. Frames that have fallen out of the
+	 * timeline are ignored.
+	 * 
+	 * @param frame the frame to show
+	 */
+	public void scrubTo(long frame) {
+		if (frame < timeline.getFirstFrame() || frame > timeline.getLastFrame()) {
+			return;
+		}
+		isRunning = false;
+		targetPositions = null;
+		if (frame == timeline.getLastFrame()) {
+			goLive();
+		} else {
+			scrubRemaining = timeline.seek(frame, scrubInFlight, scrubSlots);
+			isScrubbing = true;
+			beanPositions = getBeanPositions();
+		}
+		repaint();
+	}
+
 	/**
 	 * Advance the machine one step.
 	 */
 	private void runOneStep() {
+		goLive();
 		// Get current positions
 		beanPositions = getBeanPositions();
+		int[] oldSlots = live.slotBeanCounts.clone();
 		// Drop the last bean into the slot
+		markBean(beanPositions[SLOT_COUNT - 1]);
 		beanPositions[SLOT_COUNT - 1] = null;
 		// Advance one step
 		logic.advanceStep();
+		recordFrame();
 		// Get new positions
 		targetPositions = getBeanPositions();
-		// Repaint
-		repaint();
+		startPositions = new Point[SLOT_COUNT];
+		for (int i = 0; i < SLOT_COUNT; i++) {
+			if (beanPositions[i] != null) {
+				startPositions[i] = new Point(beanPositions[i]);
+			}
+		}
+		stepStartTime = System.nanoTime();
+		// Repaint the bars that got a bean and the statistics
+		for (int i = 0; i < SLOT_COUNT; i++) {
+			if (live.slotBeanCounts[i] != oldSlots[i]) {
+				markDirty(barBounds(i, Math.max(live.slotBeanCounts[i], oldSlots[i])));
+			}
+		}
+		markDirty(statsBounds());
+		repaintDirty();
 	}
 
 	/**
@@ -155,6 +300,7 @@ public class MainPanel extends JPanel {
 	public void step() {
 		isRunning = false;
 		timeBetweenFrames = 10;
+		timeOfStep = 500;
 		runOneStep();
 	}
 
@@ -164,6 +310,7 @@ public class MainPanel extends JPanel {
 	public void runSlow() {
 		isRunning = true;
 		timeBetweenFrames = 10;
+		timeOfStep = 500;
 		timeBetweenSteps = 100;
 		runOneStep();
 	}
@@ -174,6 +321,7 @@ public class MainPanel extends JPanel {
 	public void runFast() {
 		isRunning = true;
 		timeBetweenFrames = 1;
+		timeOfStep = 50;
 		timeBetweenSteps = 1;
 		runOneStep();
 	}
@@ -183,12 +331,16 @@ public class MainPanel extends JPanel {
 	}
 
 	public void lowerHalf() {
+		goLive();
 		logic.lowerHalf();
+		recordFrame();
 		repaint();
 	}
 
 	public void upperHalf() {
+		goLive();
 		logic.upperHalf();
+		recordFrame();
 		repaint();
 	}
 
@@ -199,7 +351,9 @@ public class MainPanel extends JPanel {
 	 */
 	public void repeat() {
 		isRunning = false;
+		goLive();
 		logic.repeat();
+		recordFrame();
 		// repeat() clears machine of in-flight beans, so need to refresh positions
 		beanPositions = getBeanPositions();
 		repaint();
@@ -210,7 +364,9 @@ public class MainPanel extends JPanel {
 	 */
 	public void reset() {
 		isRunning = false;
+		goLive();
 		logic.reset(beans);
+		recordFrame();
 		// repeat() clears machine of in-flight beans, so need to refresh positions
 		beanPositions = getBeanPositions();
 		repaint();
@@ -226,7 +382,9 @@ public class MainPanel extends JPanel {
 		for (int i = 0; i < SLOT_COUNT - 1; i++) {
 			for (int j = 0; j <= i; j++) {
 				Point p = logicalToPhysical(new Point(j, i));
-				g.drawRect(p.x, p.y, PEG_SIZE, PEG_SIZE);
+				if (g.hitClip(p.x, p.y, PEG_SIZE + 1, PEG_SIZE + 1)) {
+					g.drawRect(p.x, p.y, PEG_SIZE, PEG_SIZE);
+				}
 			}
 		}
 	}
@@ -239,7 +397,7 @@ public class MainPanel extends JPanel {
 	public void drawBeans(Graphics g) {
 		g.setColor(Color.BLACK);
 		for (int i = 0; i < SLOT_COUNT; i++) {
-			if (beanPositions[i] != null) {
+			if (beanPositions[i] != null && g.hitClip(beanPositions[i].x, beanPositions[i].y, BEAN_SIZE, BEAN_SIZE)) {
 				g.fillOval(beanPositions[i].x, beanPositions[i].y, BEAN_SIZE, BEAN_SIZE);
 			}
 		}
@@ -252,11 +410,17 @@ public class MainPanel extends JPanel {
 	 */
 	public void drawBars(Graphics g) {
 		g.setColor(Color.BLACK);
+		int[] slots = isScrubbing ? scrubSlots : live.slotBeanCounts;
 		for (int i = 0; i < SLOT_COUNT; i++) {
 			Dimension d = getSize();
 			Point p = logicalToPhysical(new Point(i, SLOT_COUNT));
-			g.fillRect(p.x, d.height - BOTTOM_MARGIN - BAR_TEXT_HEIGHT - logic.getSlotBeanCount(i),
-					d.width / (SLOT_COUNT + 1), logic.getSlotBeanCount(i));
+			int count = slots[i];
+			Rectangle r = barBounds(i, count);
+			if (!g.hitClip(r.x, r.y, r.width, r.height)) {
+				continue;
+			}
+			g.fillRect(p.x, d.height - BOTTOM_MARGIN - BAR_TEXT_HEIGHT - count,
+					d.width / (SLOT_COUNT + 1), count);
 			g.drawString(String.valueOf(i), p.x + d.width / (SLOT_COUNT + 1) / 2, d.height - BOTTOM_MARGIN);
 		}
 	}
@@ -268,17 +432,40 @@ public class MainPanel extends JPanel {
 	 * @param g the graphics object
 	 */
 	public void drawStats(Graphics g) {
+		Rectangle r = statsBounds();
+		if (!g.hitClip(r.x, r.y, r.width, r.height)) {
+			return;
+		}
 		Dimension d = getSize();
 		g.setFont(new Font("Courier", Font.PLAIN, 20));
-		String average = "Average = " + new DecimalFormat("#.##").format(logic.getAverageSlotBeanCount());
+		double averageSlot = live.getAverageSlotBeanCount();
+		int remainingCount = live.remainingBeanCount;
+		if (isScrubbing) {
+			double sum = 0;
+			int count = 0;
+			for (int i = 0; i < SLOT_COUNT; i++) {
+				sum += i * scrubSlots[i];
+				count += scrubSlots[i];
+			}
+			averageSlot = count == 0 ? 0 : sum / count;
+			remainingCount = scrubRemaining;
+		}
+		String average = "Average = " + new DecimalFormat("#.##").format(averageSlot);
 		g.drawString(average, d.width - 200, TOP_MARGIN);
-		String remaining = "Remaining = " + logic.getRemainingBeanCount();
+		String remaining = "Remaining = " + remainingCount;
 		g.drawString(remaining, d.width - 200, TOP_MARGIN + 30);
+		if (isScrubbing) {
+			g.drawString("Frame " + scrubber.getValue() + " of " + timeline.getLastFrame(), d.width - 200,
+					TOP_MARGIN + 60);
+		}
 	}
 
 	@Override
 	public void paintComponent(Graphics g) {
 		super.paintComponent(g);
+		if (!isScrubbing) {
+			logic.snapshot(live);
+		}
 		if (beanPositions == null) {
 			beanPositions = getBeanPositions();
 		}
@@ -289,20 +476,30 @@ public class MainPanel extends JPanel {
 
 		// If we have target positions, we are still moving
 		if (targetPositions != null) {
-			boolean allArrived = true;
-			for (int i = 0; i < SLOT_COUNT - 1; i++) {
-				if (beanPositions[i] != null && targetPositions[i + 1] != null) {
-					allArrived &= moveOnePixel(beanPositions[i], targetPositions[i + 1]);
-				}
-			}
 			try {
 				Thread.sleep(timeBetweenFrames);
 			} catch (InterruptedException ie) {
 				// Nothing to do here
 			}
+			// Move the beans to where they should be by now, however many frames that skips
+			double fraction = Math.min(1.0, (System.nanoTime() - stepStartTime) / (timeOfStep * 1e6));
+			for (int i = 0; i < SLOT_COUNT - 1; i++) {
+				if (beanPositions[i] != null && targetPositions[i + 1] != null) {
+					markBean(beanPositions[i]);
+					interpolate(beanPositions[i], startPositions[i], targetPositions[i + 1], fraction);
+					markBean(beanPositions[i]);
+				}
+			}
+			boolean allArrived = fraction >= 1.0;
 			if (allArrived) {
 				// Now that beans have arrived, reset bean positions for the next frame
+				for (Point p : beanPositions) {
+					markBean(p);
+				}
 				beanPositions = getBeanPositions();
+				for (Point p : beanPositions) {
+					markBean(p);
+				}
 				// Remove target positions such that animations stop for this step
 				targetPositions = null;
 				// If running, take the next step
@@ -320,8 +517,13 @@ public class MainPanel extends JPanel {
 					}
 				}
 			}
-			// Put repaint request on the queue again for the next frame
-			repaint();
+			// Put repaint request on the queue again for the next frame. If no bean
+			// moved (say the only bean just landed), repaint the slots anyway so
+			// that frames keep coming until the step is over.
+			if (targetPositions != null && dirty == null) {
+				markDirty(slotsBounds());
+			}
+			repaintDirty();
 		}
 	}
 
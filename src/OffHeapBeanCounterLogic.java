@@ -0,0 +1,292 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * OffHeapBeanCounterLogic: A skill-mode machine whose beans, remaining queue
+ * and slots all live in memory-mapped files, for populations of billions of
+ * beans.
+ *
+ * <p>
+ * The machine follows BeanCounterLogicImpl step for step: the same in-flight
+ * rows, the same FIFO slots, and the same beans removed by upperHalf(),
+ * lowerHalf() and put back by repeat(). Beans are packed 8-byte records in an
+ * OffHeapBeanStore and the queues hold 8-byte ids in OffHeapBeanQueue blocks,
+ * so the heap only holds the in-flight row ids and a few buffers whatever the
+ * population size, and GC cost does not grow with it.
+ *
+ * <p>
+ * Counts can exceed Integer.MAX_VALUE; the BeanCounterLogic getters saturate
+ * and the ...Long getters return exact values. Luck-mode beans are rejected:
+ * their Random objects cannot be packed (see LaneBeanCounterLogic for a compact
+ * luck-mode engine).
+ */
+
+public class OffHeapBeanCounterLogic implements BeanCounterLogic, Closeable {
+	static final int BATCH_BEANS = BeanFactory.CHUNK_SIZE * 64;
+
+	private final int slotCount;
+	private final OffHeapBeanStore store;
+	private final OffHeapBeanQueue.Blocks blocks;
+	private final OffHeapBeanQueue remaining;
+	private final OffHeapBeanQueue[] slots;
+	private final long[] inFlight;	// Bean id in each row, or NO_BEAN
+
+	/**
+	 * Constructor - creates an empty machine with its files in dir.
+	 *
+	 * @param slotCount the number of slots in the machine, at most
+	 *                  Short.MAX_VALUE
+	 * @param dir       the directory for the backing files, or null for the
+	 *                  default temporary directory
+	 * @throws IOException if the files cannot be created
+	 */
+	public OffHeapBeanCounterLogic(int slotCount, File dir) throws IOException {
+		if (slotCount < 1 || slotCount > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("slot count must be between 1 and " + Short.MAX_VALUE);
+		}
+		this.slotCount = slotCount;
+		store = new OffHeapBeanStore(dir);
+		blocks = new OffHeapBeanQueue.Blocks(dir);
+		remaining = new OffHeapBeanQueue(blocks);
+		slots = new OffHeapBeanQueue[slotCount];
+		for (int i = 0; i < slotCount; i++) {
+			slots[i] = new OffHeapBeanQueue(blocks);
+		}
+		inFlight = new long[slotCount];
+		clear();
+	}
+
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	private static int saturate(long count) {
+		return (int) Math.min(Integer.MAX_VALUE, count);
+	}
+
+	public int getRemainingBeanCount() {
+		return saturate(remaining.size());
+	}
+
+	public long getRemainingBeanCountLong() {
+		return remaining.size();
+	}
+
+	public int getInFlightBeanXPos(int yPos) {
+		long id = inFlight[yPos];
+		return id == OffHeapBeanQueue.NO_BEAN ? NO_BEAN_IN_YPOS : store.getDirection(id);
+	}
+
+	public int getSlotBeanCount(int i) {
+		return saturate(slots[i].size());
+	}
+
+	public long getSlotBeanCountLong(int i) {
+		return slots[i].size();
+	}
+
+	public double getAverageSlotBeanCount() {
+		double sum = 0;
+		long count = 0;
+		for (int i = 0; i < slotCount; i++) {
+			sum += (double) i * slots[i].size();
+			count += slots[i].size();
+		}
+		return count == 0 ? 0 : sum / count;
+	}
+
+	private void halve(boolean upper) {
+		long total = 0;
+		for (OffHeapBeanQueue slot : slots) {
+			total += slot.size();
+		}
+		long left = total / 2;
+		for (int k = 0; k < slotCount && left > 0; k++) {
+			OffHeapBeanQueue slot = slots[upper ? k : slotCount - 1 - k];
+			long taken = Math.min(left, slot.size());
+			slot.skip(taken);
+			left -= taken;
+		}
+	}
+
+	public void upperHalf() {
+		halve(true);
+	}
+
+	public void lowerHalf() {
+		halve(false);
+	}
+
+	private void clear() {
+		store.clear();
+		remaining.clear();
+		for (int i = 0; i < slotCount; i++) {
+			slots[i].clear();
+			inFlight[i] = OffHeapBeanQueue.NO_BEAN;
+		}
+	}
+
+	private void startFirstBean() {
+		long id = remaining.poll();
+		if (id != OffHeapBeanQueue.NO_BEAN) {
+			store.restart(id);
+		}
+		inFlight[0] = id;
+	}
+
+	/**
+	 * Empties the machine and copies the skill levels of the given skill-mode
+	 * beans into it, in order.
+	 *
+	 * @param beans the beans, or null
+	 * @throws IllegalArgumentException if a bean is in luck or biased mode
+	 */
+	public void reset(Bean[] beans) {
+		clear();
+		if (beans != null) {
+			for (Bean bean : beans) {
+				BeanImpl b = (BeanImpl) bean;
+				if (b.isLuck()) {
+					throw new IllegalArgumentException("OffHeapBeanCounterLogic only supports skill mode");
+				}
+				remaining.add(store.add(b.getSkillLevel()));
+			}
+		}
+		startFirstBean();
+	}
+
+	/**
+	 * Empties the machine and fills it with a population drawn by a factory,
+	 * without creating any bean objects. Bean i gets the skill level of bean i of
+	 * factory.createBeans().
+	 *
+	 * @param factory the factory to draw skill levels from
+	 * @param count   the number of beans
+	 */
+	public void reset(BeanFactory factory, long count) {
+		clear();
+		int[] skills = new int[(int) Math.min(BATCH_BEANS, count)];
+		for (long from = 0; from < count; from += BATCH_BEANS) {
+			int n = (int) Math.min(BATCH_BEANS, count - from);
+			factory.fillSkills(from, skills, n);
+			for (int i = 0; i < n; i++) {
+				remaining.add(store.add(skills[i]));
+			}
+		}
+		startFirstBean();
+	}
+
+	public void repeat() {
+		for (int i = 0; i < slotCount; i++) {
+			slots[i].drainTo(remaining);
+			if (inFlight[i] != OffHeapBeanQueue.NO_BEAN) {
+				remaining.add(inFlight[i]);
+				inFlight[i] = OffHeapBeanQueue.NO_BEAN;
+			}
+		}
+		startFirstBean();
+	}
+
+	public boolean advanceStep() {
+		boolean moved = false;
+		for (int i = slotCount - 1; i >= 0; i--) {
+			if (i < slotCount - 1) {
+				inFlight[i + 1] = OffHeapBeanQueue.NO_BEAN;
+			}
+			long id = inFlight[i];
+			if (id != OffHeapBeanQueue.NO_BEAN) {
+				if (i == slotCount - 1) {
+					slots[store.getDirection(id)].add(id);
+				} else {
+					store.whichDirection(id);
+					inFlight[i + 1] = id;
+				}
+				moved = true;
+			}
+		}
+		startFirstBean();
+		return moved;
+	}
+
+	/**
+	 * Runs the machine until all beans have landed, putting each bean directly
+	 * into the slot it would land in, like BeanCounterLogicImpl does in skill
+	 * mode.
+	 */
+	@Override
+	public void runToCompletion() {
+		for (int y = slotCount - 1; y >= 0; y--) {
+			long id = inFlight[y];
+			if (id != OffHeapBeanQueue.NO_BEAN) {
+				store.goRight(id, Math.max(0, Math.min(store.getRemainingSkill(id), slotCount - 1 - y)));
+				slots[store.getDirection(id)].add(id);
+				inFlight[y] = OffHeapBeanQueue.NO_BEAN;
+			}
+		}
+		long id;
+		while ((id = remaining.poll()) != OffHeapBeanQueue.NO_BEAN) {
+			store.restart(id);
+			int slot = Math.max(0, Math.min(store.getSkillLevel(id), slotCount - 1));
+			store.goRight(id, slot);
+			slots[slot].add(id);
+		}
+	}
+
+	/**
+	 * Deletes the backing files.
+	 */
+	public void close() throws IOException {
+		store.close();
+		blocks.close();
+	}
+
+	/**
+	 * Prints usage information.
+	 */
+	public static void showUsage() {
+		System.out.println("Usage: java OffHeapBeanCounterLogic slot_count bean_count [seed] [dir]");
+		System.out.println("Example: java OffHeapBeanCounterLogic 10 3000000000 1234 /scratch");
+	}
+
+	/**
+	 * Main method. Runs a skill-mode experiment of any size and prints the slot
+	 * bean counts.
+	 *
+	 * @param args commandline arguments; see showUsage() for detailed information
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || args.length > 4) {
+			showUsage();
+			return;
+		}
+		int slotCount;
+		long beanCount;
+		long seed = System.nanoTime();
+		try {
+			slotCount = Integer.parseInt(args[0]);
+			beanCount = Long.parseLong(args[1]);
+			if (args.length >= 3) {
+				seed = Long.parseLong(args[2]);
+			}
+		} catch (NumberFormatException ne) {
+			showUsage();
+			return;
+		}
+		if (slotCount < 1 || slotCount > Short.MAX_VALUE || beanCount < 0) {
+			showUsage();
+			return;
+		}
+		File dir = args.length == 4 ? new File(args[3]) : null;
+		try (OffHeapBeanCounterLogic logic = new OffHeapBeanCounterLogic(slotCount, dir)) {
+			logic.reset(new BeanFactory(slotCount, seed), beanCount);
+			logic.runToCompletion();
+			StringBuilder bld = new StringBuilder();
+			for (int i = 0; i < slotCount; i++) {
+				bld.append(' ').append(logic.getSlotBeanCountLong(i));
+			}
+			System.out.println("Slot bean counts:");
+			System.out.println(bld.toString().trim());
+		}
+	}
+}
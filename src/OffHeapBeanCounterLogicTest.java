@@ -0,0 +1,120 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Unit tests for OffHeapBeanCounterLogic and OffHeapBeanQueue.
+ */
+
+public class OffHeapBeanCounterLogicTest {
+
+	/**
+	 * Test case for the equivalence of OffHeapBeanCounterLogic and
+	 * BeanCounterLogicImpl. Preconditions: none. Execution steps: For 1-10 slots,
+	 * reset both machines with the same seeded skill-mode beans, then apply the
+	 * same random sequence of advanceStep(), upperHalf(), lowerHalf(), repeat(),
+	 * runToCompletion() and reset() to both. Invariants: after every operation
+	 * both machines have the same in-flight positions, slot bean counts and
+	 * remaining bean count, and advanceStep() returns the same value.
+	 */
+	@Test
+	public void testSameAsBeanCounterLogicImpl() throws IOException {
+		Random rand = new Random(44);
+		for (int slots = 1; slots <= 10; slots++) {
+			OffHeapBeanCounterLogic offHeap = new OffHeapBeanCounterLogic(slots, null);
+			try {
+				for (int run = 0; run < 10; run++) {
+					BeanCounterLogicImpl impl = new BeanCounterLogicImpl(slots);
+					int beans = rand.nextInt(40);
+					long seed = rand.nextLong();
+					offHeap.reset(BeanCounterLogicTest.seededBeans(slots, beans, false, seed));
+					impl.reset(BeanCounterLogicTest.seededBeans(slots, beans, false, seed));
+					String trace = "slots=" + slots + ", " + beans + " beans: reset";
+					assertEquals(trace, BeanCounterLogicTest.describe(impl, slots),
+							BeanCounterLogicTest.describe(offHeap, slots));
+					for (int op = 0; op < 200; op++) {
+						int choice = rand.nextInt(40);
+						if (choice == 0) {
+							offHeap.upperHalf();
+							impl.upperHalf();
+							trace += ", upperHalf";
+						} else if (choice == 1) {
+							offHeap.lowerHalf();
+							impl.lowerHalf();
+							trace += ", lowerHalf";
+						} else if (choice == 2 || choice == 3) {
+							offHeap.repeat();
+							impl.repeat();
+							trace += ", repeat";
+						} else if (choice == 4) {
+							offHeap.runToCompletion();
+							impl.runToCompletion();
+							trace += ", runToCompletion";
+						} else if (choice == 5) {
+							beans = rand.nextInt(40);
+							seed = rand.nextLong();
+							offHeap.reset(BeanCounterLogicTest.seededBeans(slots, beans, false, seed));
+							impl.reset(BeanCounterLogicTest.seededBeans(slots, beans, false, seed));
+							trace += ", reset(" + beans + ")";
+						} else {
+							assertEquals(trace + ", advanceStep", impl.advanceStep(), offHeap.advanceStep());
+							trace += ", step";
+						}
+						assertEquals(trace, BeanCounterLogicTest.describe(impl, slots),
+								BeanCounterLogicTest.describe(offHeap, slots));
+					}
+				}
+			} finally {
+				offHeap.close();
+			}
+		}
+	}
+
+	/**
+	 * Test case for void OffHeapBeanQueue.drainTo(OffHeapBeanQueue).
+	 * Preconditions: none. Execution steps: Fill two queues sharing a pool with
+	 * runs of ids that span several blocks and start at different offsets within
+	 * a block, drain one into the other, into an empty queue and from an empty
+	 * queue. Invariants: the destination holds its own ids followed by the
+	 * source's, in order, and the source is left empty and still usable.
+	 */
+	@Test
+	public void testQueueDrainTo() throws IOException {
+		int block = OffHeapBeanQueue.Blocks.BLOCK_IDS;
+		OffHeapBeanQueue.Blocks pool = new OffHeapBeanQueue.Blocks(null);
+		try {
+			OffHeapBeanQueue src = new OffHeapBeanQueue(pool);
+			OffHeapBeanQueue dst = new OffHeapBeanQueue(pool);
+			OffHeapBeanQueue empty = new OffHeapBeanQueue(pool);
+			for (long id = 0; id < 2L * block + 100; id++) {
+				src.add(id);
+			}
+			src.skip(17);
+			for (long id = 0; id < block + 5000; id++) {
+				dst.add(1L << 40 | id);
+			}
+			dst.skip(3);
+			src.drainTo(dst);
+			assertEquals(0, src.size());
+			assertEquals(OffHeapBeanQueue.NO_BEAN, src.peek());
+			empty.drainTo(dst);
+			dst.drainTo(empty);
+			assertEquals(0, dst.size());
+			assertEquals(block + 4997 + 2L * block + 83, empty.size());
+			for (long id = 3; id < block + 5000; id++) {
+				assertEquals(1L << 40 | id, empty.poll());
+			}
+			for (long id = 17; id < 2L * block + 100; id++) {
+				assertEquals(id, empty.poll());
+			}
+			assertEquals(OffHeapBeanQueue.NO_BEAN, empty.poll());
+			src.add(42);
+			assertEquals(42, src.poll());
+		} finally {
+			pool.close();
+		}
+	}
+}
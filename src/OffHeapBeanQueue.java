@@ -0,0 +1,226 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OffHeapBeanQueue: A FIFO queue of long bean ids kept in memory-mapped blocks,
+ * the off-heap counterpart of BeanQueue.
+ *
+ * <p>
+ * A queue is a chain of fixed-size blocks taken from a shared Blocks pool, so
+ * the queues of one machine (remaining beans and every slot) can grow and
+ * shrink independently while together never using more blocks than the
+ * population needs plus one partly filled block per queue. Emptied blocks go
+ * back to the pool and are reused.
+ */
+
+class OffHeapBeanQueue {
+	static final long NO_BEAN = -1;
+
+	/**
+	 * Blocks: A pool of BLOCK_IDS-id blocks mapped from one temporary file.
+	 */
+	static class Blocks implements Closeable {
+		static final int BLOCK_SHIFT = 17;
+		static final int BLOCK_IDS = 1 << BLOCK_SHIFT;	// 1 MB per block
+
+		private final File file;
+		private final RandomAccessFile raf;
+		private final List<LongBuffer> blocks = new ArrayList<>();
+		private int[] free = new int[16];
+		private int freeCount;
+
+		/**
+		 * Constructor - creates an empty pool backed by a temporary file in dir,
+		 * which is deleted when the pool is closed.
+		 *
+		 * @param dir the directory for the backing file, or null for the default
+		 *            temporary directory
+		 * @throws IOException if the file cannot be created
+		 */
+		Blocks(File dir) throws IOException {
+			file = File.createTempFile("beans-", ".queue", dir);
+			file.deleteOnExit();
+			raf = new RandomAccessFile(file, "rw");
+		}
+
+		int allocate() {
+			if (freeCount > 0) {
+				return free[--freeCount];
+			}
+			long bytes = (long) BLOCK_IDS * 8;
+			try {
+				LongBuffer block = raf.getChannel()
+						.map(FileChannel.MapMode.READ_WRITE, blocks.size() * bytes, bytes)
+						.order(ByteOrder.nativeOrder()).asLongBuffer();
+				blocks.add(block);
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot grow bean queue file " + file, e);
+			}
+			return blocks.size() - 1;
+		}
+
+		void release(int block) {
+			if (freeCount == free.length) {
+				int[] grown = new int[free.length * 2];
+				System.arraycopy(free, 0, grown, 0, freeCount);
+				free = grown;
+			}
+			free[freeCount++] = block;
+		}
+
+		LongBuffer get(int block) {
+			return blocks.get(block);
+		}
+
+		public void close() throws IOException {
+			blocks.clear();
+			raf.close();
+			file.delete();
+		}
+	}
+
+	private final Blocks pool;
+	private int[] chain = new int[4];	// Block indices, a ring starting at chainHead
+	private int chainHead;
+	private int chainSize;
+	private int headPos;				// Position of the first id in the first block
+	private long size;
+
+	OffHeapBeanQueue(Blocks pool) {
+		this.pool = pool;
+	}
+
+	long size() {
+		return size;
+	}
+
+	private int chainBlock(long index) {
+		return chain[(int) ((chainHead + index) % chain.length)];
+	}
+
+	/**
+	 * Makes sure the block that holds position pos is in the chain, appending a
+	 * block from the pool if pos is just past the last one.
+	 */
+	private void ensureBlock(long pos) {
+		if ((pos >>> Blocks.BLOCK_SHIFT) < chainSize) {
+			return;
+		}
+		if (chainSize == chain.length) {
+			int[] grown = new int[chain.length * 2];
+			for (int i = 0; i < chainSize; i++) {
+				grown[i] = chain[(chainHead + i) % chain.length];
+			}
+			chain = grown;
+			chainHead = 0;
+		}
+		chain[(chainHead + chainSize) % chain.length] = pool.allocate();
+		chainSize++;
+	}
+
+	void add(long id) {
+		long pos = headPos + size;
+		ensureBlock(pos);
+		pool.get(chainBlock(pos >>> Blocks.BLOCK_SHIFT)).put((int) (pos & (Blocks.BLOCK_IDS - 1)), id);
+		size++;
+	}
+
+	long peek() {
+		return size == 0 ? NO_BEAN : pool.get(chain[chainHead]).get(headPos);
+	}
+
+	long poll() {
+		if (size == 0) {
+			return NO_BEAN;
+		}
+		long id = pool.get(chain[chainHead]).get(headPos);
+		skip(1);
+		return id;
+	}
+
+	/**
+	 * Removes the first n ids, giving whole blocks back to the pool without
+	 * reading them.
+	 *
+	 * @param n the number of ids to remove, at most size()
+	 */
+	void skip(long n) {
+		long pos = headPos + n;
+		size -= n;
+		long dropBlocks = pos >>> Blocks.BLOCK_SHIFT;
+		if (size == 0) {
+			clear();
+			return;
+		}
+		for (long b = 0; b < dropBlocks; b++) {
+			pool.release(chain[chainHead]);
+			chainHead = (chainHead + 1) % chain.length;
+			chainSize--;
+		}
+		headPos = (int) (pos & (Blocks.BLOCK_IDS - 1));
+	}
+
+	/**
+	 * Removes all ids and gives all blocks back to the pool.
+	 */
+	void clear() {
+		for (int i = 0; i < chainSize; i++) {
+			pool.release(chain[(chainHead + i) % chain.length]);
+		}
+		chainHead = 0;
+		chainSize = 0;
+		headPos = 0;
+		size = 0;
+	}
+
+	/**
+	 * Moves all ids to the end of dst, keeping their order, and leaves this
+	 * queue empty. Both queues must share a pool. If dst is empty it simply
+	 * takes over this queue's blocks; otherwise the ids are copied in bulk, one
+	 * run per source or destination block boundary, and the emptied source
+	 * blocks go back to the pool as they are passed.
+	 *
+	 * @param dst the queue to append the ids to
+	 */
+	void drainTo(OffHeapBeanQueue dst) {
+		if (size == 0) {
+			return;
+		}
+		if (dst.size == 0) {
+			dst.clear();
+			int[] emptyChain = dst.chain;
+			dst.chain = chain;
+			dst.chainHead = chainHead;
+			dst.chainSize = chainSize;
+			dst.headPos = headPos;
+			dst.size = size;
+			chain = emptyChain;
+			chainHead = 0;
+			chainSize = 0;
+			headPos = 0;
+			size = 0;
+			return;
+		}
+		while (size > 0) {
+			long dstPos = dst.headPos + dst.size;
+			dst.ensureBlock(dstPos);
+			int dstOffset = (int) (dstPos & (Blocks.BLOCK_IDS - 1));
+			int n = (int) Math.min(size, Math.min(Blocks.BLOCK_IDS - headPos, Blocks.BLOCK_IDS - dstOffset));
+			LongBuffer from = pool.get(chain[chainHead]).duplicate();
+			from.limit(headPos + n);
+			from.position(headPos);
+			LongBuffer to = pool.get(dst.chainBlock(dstPos >>> Blocks.BLOCK_SHIFT)).duplicate();
+			to.position(dstOffset);
+			to.put(from);
+			dst.size += n;
+			skip(n);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OffHeapBeanStore: Skill-mode beans packed into a memory-mapped file, for
+ * populations larger than the heap.
+ *
+ * <p>
+ * A bean is an 8-byte record: int skill level, short remaining skill and short
+ * direction (x-position), the same state a skill-mode BeanImpl keeps. Bean ids
+ * are longs. The file is mapped in segments of SEGMENT_BEANS beans as the store
+ * grows, so the memory used is whatever the page cache keeps of the file, not
+ * heap, and the GC never sees the beans.
+ *
+ * <p>
+ * A bean's remaining skill only matters while it is at most slotCount, so it
+ * is stored clamped to [-1, Short.MAX_VALUE]; this limits machines to
+ * Short.MAX_VALUE slots.
+ */
+
+public class OffHeapBeanStore implements Closeable {
+	static final int RECORD_SIZE = 8;
+	static final int SEGMENT_SHIFT = 27;
+	static final long SEGMENT_BEANS = 1L << SEGMENT_SHIFT;	// 1 GB per mapping
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final List<MappedByteBuffer> segments = new ArrayList<>();
+	private long size;
+
+	/**
+	 * Constructor - creates an empty store in a temporary file in dir, which is
+	 * deleted when the store is closed.
+	 *
+	 * @param dir the directory for the backing file, or null for the default
+	 *            temporary directory
+	 * @throws IOException if the file cannot be created
+	 */
+	public OffHeapBeanStore(File dir) throws IOException {
+		file = File.createTempFile("beans-", ".store", dir);
+		file.deleteOnExit();
+		raf = new RandomAccessFile(file, "rw");
+	}
+
+	public long size() {
+		return size;
+	}
+
+	private MappedByteBuffer segmentOf(long id) {
+		return segments.get((int) (id >>> SEGMENT_SHIFT));
+	}
+
+	private static int offsetOf(long id) {
+		return (int) (id & (SEGMENT_BEANS - 1)) * RECORD_SIZE;
+	}
+
+	/**
+	 * Adds a bean with the given skill level, at the top of the machine with its
+	 * full skill.
+	 *
+	 * @param skillLevel the skill level
+	 * @return the id of the new bean
+	 */
+	public long add(int skillLevel) {
+		long id = size;
+		if ((id & (SEGMENT_BEANS - 1)) == 0) {
+			try {
+				MappedByteBuffer segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+						id * RECORD_SIZE, SEGMENT_BEANS * RECORD_SIZE);
+				segment.order(ByteOrder.nativeOrder());
+				segments.add(segment);
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot grow bean store " + file, e);
+			}
+		}
+		MappedByteBuffer segment = segmentOf(id);
+		int offset = offsetOf(id);
+		segment.putInt(offset, skillLevel);
+		segment.putShort(offset + 4, clampSkill(skillLevel));
+		segment.putShort(offset + 6, (short) 0);
+		size++;
+		return id;
+	}
+
+	private static short clampSkill(int skill) {
+		return (short) Math.max(-1, Math.min(Short.MAX_VALUE, skill));
+	}
+
+	/**
+	 * Removes all beans. The file keeps its size for reuse.
+	 */
+	public void clear() {
+		size = 0;
+		segments.clear();
+	}
+
+	public int getSkillLevel(long id) {
+		return segmentOf(id).getInt(offsetOf(id));
+	}
+
+	public int getRemainingSkill(long id) {
+		return segmentOf(id).getShort(offsetOf(id) + 4);
+	}
+
+	public int getDirection(long id) {
+		return segmentOf(id).getShort(offsetOf(id) + 6);
+	}
+
+	/**
+	 * Puts a bean back at the top of the machine with its full skill, like
+	 * BeanImpl.setSkill() and setDirection(0).
+	 *
+	 * @param id the bean
+	 */
+	public void restart(long id) {
+		MappedByteBuffer segment = segmentOf(id);
+		int offset = offsetOf(id);
+		segment.putShort(offset + 4, clampSkill(segment.getInt(offset)));
+		segment.putShort(offset + 6, (short) 0);
+	}
+
+	/**
+	 * Lets a bean choose its direction at a peg, like the skill-mode branch of
+	 * BeanImpl.whichDirection(): it goes right while it has skill left.
+	 *
+	 * @param id the bean
+	 */
+	public void whichDirection(long id) {
+		MappedByteBuffer segment = segmentOf(id);
+		int offset = offsetOf(id);
+		short remaining = segment.getShort(offset + 4);
+		if (remaining > 0) {
+			segment.putShort(offset + 4, (short) (remaining - 1));
+			segment.putShort(offset + 6, (short) (segment.getShort(offset + 6) + 1));
+		}
+	}
+
+	/**
+	 * Moves a bean to its final x-position directly, for beans whose remaining
+	 * path does not need to be stepped through.
+	 *
+	 * @param id     the bean
+	 * @param rights the number of pegs it still goes right at
+	 */
+	public void goRight(long id, int rights) {
+		MappedByteBuffer segment = segmentOf(id);
+		int offset = offsetOf(id);
+		segment.putShort(offset + 4, (short) (segment.getShort(offset + 4) - rights));
+		segment.putShort(offset + 6, (short) (segment.getShort(offset + 6) + rights));
+	}
+
+	/**
+	 * Closes and deletes the backing file. Java cannot unmap explicitly, so the
+	 * pages are released once the segments are garbage collected.
+	 */
+	public void close() throws IOException {
+		segments.clear();
+		raf.close();
+		file.delete();
+	}
+}
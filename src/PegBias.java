@@ -0,0 +1,207 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * PegBias: The probability of going right at each peg of a biased machine.
+ * Probabilities can be given per row (every peg in a row has the same bias) or
+ * per peg.
+ *
+ * <p>
+ * The probabilities are converted into integer thresholds once, at
+ * construction. A bean then decides its direction with a single
+ * rand.nextInt() and an integer compare: it goes right if the 31-bit draw is at
+ * most the threshold of the peg. A probability of 0 maps to -1 (never right)
+ * and a probability of 1 maps to Integer.MAX_VALUE (always right).
+ *
+ * <p>
+ * Pegs use the logical coordinate system of BeanCounterLogic: the peg at
+ * (xPos, yPos) is hit by the in-flight bean at that position, for yPos from 0
+ * to slotCount - 2.
+ */
+
+public class PegBias {
+	private static final double SCALE = 2147483648.0; // 2^31
+	private static final int LINEAR_SEARCH_SLOTS = 32;
+
+	private final int slotCount;
+	private final int[] rowThresholds;		// Used when the bias is per row
+	private final int[][] pegThresholds;	// Used when the bias is per peg, otherwise null
+	private final int[] slotThresholds;		// Cumulative landing distribution for bulk sampling
+
+	private PegBias(int slotCount, int[] rowThresholds, int[][] pegThresholds, double[] slotDistribution) {
+		this.slotCount = slotCount;
+		this.rowThresholds = rowThresholds;
+		this.pegThresholds = pegThresholds;
+		this.slotThresholds = new int[slotCount];
+		double cumulative = 0;
+		for (int i = 0; i < slotCount; i++) {
+			cumulative += slotDistribution[i];
+			slotThresholds[i] = toThreshold(cumulative);
+		}
+		slotThresholds[slotCount - 1] = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Creates a bias where every peg goes right with probability p.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @param p         the probability of going right
+	 * @return the bias
+	 */
+	public static PegBias uniform(int slotCount, double p) {
+		double[] rows = new double[Math.max(0, slotCount - 1)];
+		Arrays.fill(rows, p);
+		return perRow(slotCount, rows);
+	}
+
+	/**
+	 * Creates a bias where every peg in row y goes right with probability p[y].
+	 * The landing slot is then the sum of independent Bernoulli trials, so the
+	 * slot distribution is Poisson-binomial.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @param p         the probability of going right for each of the
+	 *                  slotCount - 1 peg rows
+	 * @return the bias
+	 */
+	public static PegBias perRow(int slotCount, double[] p) {
+		checkRows(slotCount, p.length);
+		int[] thresholds = new int[p.length];
+		// Poisson-binomial pmf, built up one row at a time
+		double[] pmf = new double[slotCount];
+		pmf[0] = 1;
+		for (int y = 0; y < p.length; y++) {
+			checkProbability(p[y]);
+			thresholds[y] = toThreshold(p[y]);
+			for (int k = y + 1; k > 0; k--) {
+				pmf[k] = pmf[k] * (1 - p[y]) + pmf[k - 1] * p[y];
+			}
+			pmf[0] *= 1 - p[y];
+		}
+		return new PegBias(slotCount, thresholds, null, pmf);
+	}
+
+	/**
+	 * Creates a bias where the peg at (x, y) goes right with probability
+	 * p[y][x].
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @param p         for each of the slotCount - 1 peg rows y, the y + 1
+	 *                  probabilities of going right
+	 * @return the bias
+	 */
+	public static PegBias perPeg(int slotCount, double[][] p) {
+		checkRows(slotCount, p.length);
+		int[][] thresholds = new int[p.length][];
+		// Probability of a bean passing each position, propagated row by row
+		double[] reach = new double[slotCount];
+		reach[0] = 1;
+		for (int y = 0; y < p.length; y++) {
+			if (p[y].length != y + 1) {
+				throw new IllegalArgumentException("row " + y + " must have " + (y + 1) + " pegs");
+			}
+			thresholds[y] = new int[y + 1];
+			for (int x = y; x >= 0; x--) {
+				checkProbability(p[y][x]);
+				thresholds[y][x] = toThreshold(p[y][x]);
+				reach[x + 1] += reach[x] * p[y][x];
+				reach[x] *= 1 - p[y][x];
+			}
+		}
+		return new PegBias(slotCount, null, thresholds, reach);
+	}
+
+	/**
+	 * Parses a bias specification: either a single probability for every peg,
+	 * or a comma-separated list of slotCount - 1 per-row probabilities.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @param spec      the specification, e.g. "0.7" or "0.5,0.6,0.7"
+	 * @return the bias
+	 * @throws IllegalArgumentException if spec is malformed
+	 */
+	public static PegBias parse(int slotCount, String spec) {
+		String[] parts = spec.split(",");
+		double[] p = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			p[i] = Double.parseDouble(parts[i].trim());
+		}
+		return p.length == 1 ? uniform(slotCount, p[0]) : perRow(slotCount, p);
+	}
+
+	private static void checkRows(int slotCount, int rows) {
+		if (slotCount < 1 || rows != slotCount - 1) {
+			throw new IllegalArgumentException("expected " + (slotCount - 1) + " peg rows, got " + rows);
+		}
+	}
+
+	private static void checkProbability(double p) {
+		if (!(p >= 0 && p <= 1)) {
+			throw new IllegalArgumentException("probability out of range: " + p);
+		}
+	}
+
+	private static int toThreshold(double p) {
+		return (int) Math.min(Integer.MAX_VALUE, Math.round(p * SCALE) - 1);
+	}
+
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * Decides whether a bean at the peg (xPos, yPos) goes right. One RNG draw,
+	 * one compare.
+	 *
+	 * @param xPos the x-coordinate of the peg
+	 * @param yPos the y-coordinate (row) of the peg
+	 * @param rand the random number generator of the bean
+	 * @return true if the bean goes right
+	 */
+	public boolean goesRight(int xPos, int yPos, Random rand) {
+		int threshold = pegThresholds != null ? pegThresholds[yPos][xPos] : rowThresholds[yPos];
+		return (rand.nextInt() >>> 1) <= threshold;
+	}
+
+	/**
+	 * Samples the landing slot of one bean directly from the slot distribution,
+	 * without walking the pegs. This is for bulk engines that only need slot
+	 * counts.
+	 *
+	 * @param rand the random number generator
+	 * @return the slot the bean lands in
+	 */
+	public int sampleSlot(Random rand) {
+		return slotForDraw(rand.nextInt() >>> 1);
+	}
+
+	/**
+	 * Returns the landing slot for a uniform 31-bit draw, for bulk engines that
+	 * use their own random streams.
+	 *
+	 * @param draw a uniform draw from [0, 2^31)
+	 * @return the slot a bean with that draw lands in
+	 */
+	public int slotForDraw(int draw) {
+		if (slotCount <= LINEAR_SEARCH_SLOTS) {
+			// Count the thresholds below the draw; branch-free, so the random draws
+			// cause no mispredictions
+			int slot = 0;
+			for (int i = 0; i < slotCount - 1; i++) {
+				slot += (slotThresholds[i] - draw) >>> 31;
+			}
+			return slot;
+		}
+		int lo = 0;
+		int hi = slotCount - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (draw <= slotThresholds[mid]) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,90 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Unit tests for PegBias.
+ */
+
+public class PegBiasTest {
+
+	/**
+	 * Returns the slot frequencies of beans walked peg by peg and of beans
+	 * sampled with sampleSlot(), {walked, sampled}.
+	 */
+	private static double[][] slotFrequencies(PegBias bias, int samples, long seed) {
+		int slots = bias.getSlotCount();
+		double[][] freq = new double[2][slots];
+		Random rand = new Random(seed);
+		for (int n = 0; n < samples; n++) {
+			int x = 0;
+			for (int y = 0; y < slots - 1; y++) {
+				if (bias.goesRight(x, y, rand)) {
+					x++;
+				}
+			}
+			freq[0][x] += 1.0 / samples;
+			freq[1][bias.sampleSlot(rand)] += 1.0 / samples;
+		}
+		return freq;
+	}
+
+	/**
+	 * Test case for PegBias. Preconditions: none. Execution steps: Build
+	 * per-row and per-peg biases for machines using the linear (10 slots) and
+	 * the binary (40 slots) slot search, and parse specifications. Invariants:
+	 * probabilities 0 and 1 always go left and right, slotForDraw() never
+	 * decreases as the draw grows, sampled slots follow the same distribution
+	 * as beans walked peg by peg, and malformed specifications are rejected.
+	 */
+	@Test
+	public void testPegBias() {
+		Random rand = new Random(30);
+		for (int slots : new int[] {10, 40}) {
+			PegBias never = PegBias.uniform(slots, 0);
+			PegBias always = PegBias.uniform(slots, 1);
+			for (int n = 0; n < 1000; n++) {
+				assertFalse(never.goesRight(0, n % (slots - 1), rand));
+				assertTrue(always.goesRight(0, n % (slots - 1), rand));
+				assertEquals(0, never.sampleSlot(rand));
+				assertEquals(slots - 1, always.sampleSlot(rand));
+			}
+
+			double[] rows = new double[slots - 1];
+			double[][] pegs = new double[slots - 1][];
+			for (int y = 0; y < slots - 1; y++) {
+				rows[y] = rand.nextDouble();
+				pegs[y] = new double[y + 1];
+				for (int x = 0; x <= y; x++) {
+					pegs[y][x] = rand.nextDouble();
+				}
+			}
+			for (PegBias bias : new PegBias[] {PegBias.uniform(slots, 0.3), PegBias.perRow(slots, rows),
+				PegBias.perPeg(slots, pegs)}) {
+				int last = 0;
+				for (long draw = 0; draw < (1L << 31); draw += 1 << 16) {
+					int slot = bias.slotForDraw((int) draw);
+					assertTrue("slot " + slot + " after " + last, slot >= last && slot < slots);
+					last = slot;
+				}
+				double[][] freq = slotFrequencies(bias, 200000, slots);
+				for (int i = 0; i < slots; i++) {
+					assertEquals("slot " + i + " of " + slots, freq[0][i], freq[1][i], 0.01);
+				}
+			}
+		}
+
+		assertEquals(5, PegBias.parse(5, "0.7").getSlotCount());
+		assertEquals(4, PegBias.parse(4, "0.1, 0.5, 0.9").getSlotCount());
+		for (String spec : new String[] {"0.1,0.5", "1.5", "x"}) {
+			try {
+				PegBias.parse(4, spec);
+				fail("accepted " + spec);
+			} catch (IllegalArgumentException e) {
+				// expected; NumberFormatException is an IllegalArgumentException too
+			}
+		}
+	}
+}
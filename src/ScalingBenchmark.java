@@ -0,0 +1,312 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScalingBenchmark: Runs complete experiments over a grid of slot counts, bean
+ * counts, modes and thread counts, records how they scale, and compares the
+ * results with a stored baseline.
+ *
+ * <p>
+ * Every grid cell runs in its own child JVM (same java binary and classpath),
+ * so that its peak resident set size and GC time are its own. The child splits
+ * the beans into one ShardedRun.runShard range per thread, runs them on that
+ * many threads, and prints one line "RESULT seconds peak_rss_kb gc_ms". Peak
+ * RSS comes from /proc/self/status and is -1 where that does not exist.
+ *
+ * <p>
+ * Run time grows about linearly with the bean count, so bean counts are tried
+ * from small to large and a row stops (the remaining cells are recorded as
+ * skipped) once the time of the previous cell, scaled up to the next bean
+ * count, would exceed the time budget. The budget is also the timeout of each
+ * child: a cell that runs longer is killed and recorded as skipped, and so is
+ * the rest of its row. A child that fails is recorded as a failed cell and the
+ * grid goes on.
+ *
+ * <p>
+ * Results are written as tab-separated lines:
+ *
+ * <pre>
+ * slots beans mode threads beans_per_sec peak_rss_kb gc_ms seconds
+ * </pre>
+ *
+ * <p>
+ * If a baseline file is given and exists, a cell is flagged when its beans/sec
+ * dropped, or its peak RSS grew, by more than the threshold fraction, and the
+ * benchmark exits with status 1. If the baseline file does not exist yet, the
+ * results are saved there.
+ */
+
+public class ScalingBenchmark {
+	static final String RESULT = "RESULT";
+	static final String HEADER = "slots\tbeans\tmode\tthreads\tbeans_per_sec\tpeak_rss_kb\tgc_ms\tseconds";
+
+	/**
+	 * Runs one cell in this JVM.
+	 *
+	 * @return seconds, peak RSS in kB and GC milliseconds
+	 */
+	static double[] runCell(int slotCount, long beanCount, String mode, int threads) throws InterruptedException {
+		long seed = 1;
+		Thread[] workers = new Thread[threads];
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			long from = beanCount * t / threads;
+			long to = beanCount * (t + 1) / threads;
+			workers[t] = new Thread(() -> ShardedRun.runShard(slotCount, from, to, mode, seed));
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long gcMillis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcMillis += Math.max(0, gc.getCollectionTime());
+		}
+		return new double[] {seconds, peakRssKb(), gcMillis};
+	}
+
+	/**
+	 * Returns the peak resident set size of this process in kB, or -1 if it
+	 * cannot be read.
+	 */
+	static long peakRssKb() {
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+				if (line.startsWith("VmHWM:")) {
+					return Long.parseLong(line.replaceAll("[^0-9]", ""));
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// Not Linux
+		}
+		return -1;
+	}
+
+	/**
+	 * Runs one cell in a child JVM.
+	 *
+	 * @param timeout the most seconds the child may run
+	 * @return seconds, peak RSS in kB and GC milliseconds, or null if the child
+	 *         timed out and was killed
+	 * @throws IOException if the child fails
+	 */
+	static double[] runChild(int slotCount, long beanCount, String mode, int threads, double timeout)
+			throws IOException, InterruptedException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		String cell = "cell " + slotCount + " slots, " + beanCount + " beans, " + mode + ", " + threads + " threads";
+		// The child writes to a file rather than a pipe, so a hung child cannot
+		// keep us blocked on a read past the timeout
+		File output = File.createTempFile("cell", ".out");
+		try {
+			Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					ScalingBenchmark.class.getName(), "--cell", String.valueOf(slotCount), String.valueOf(beanCount),
+					mode, String.valueOf(threads)).redirectError(ProcessBuilder.Redirect.INHERIT)
+					.redirectOutput(output).start();
+			if (!child.waitFor((long) Math.ceil(timeout * 1000), TimeUnit.MILLISECONDS)) {
+				child.destroyForcibly().waitFor();
+				System.err.println(cell + " timed out after " + timeout + " s");
+				return null;
+			}
+			double[] result = null;
+			for (String line : Files.readAllLines(output.toPath(), StandardCharsets.UTF_8)) {
+				if (line.startsWith(RESULT)) {
+					String[] parts = line.split("\\s+");
+					result = new double[] {Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+						Double.parseDouble(parts[3])};
+				}
+			}
+			if (child.exitValue() != 0 || result == null) {
+				throw new IOException(cell + " failed with exit code " + child.exitValue());
+			}
+			return result;
+		} finally {
+			output.delete();
+		}
+	}
+
+	private static String key(String[] fields) {
+		return fields[0] + "\t" + fields[1] + "\t" + fields[2] + "\t" + fields[3];
+	}
+
+	/**
+	 * Compares results with a baseline and prints every regression.
+	 *
+	 * @return the number of regressions
+	 */
+	static int compare(List<String> results, List<String> baseline, double threshold) {
+		Map<String, String[]> base = new HashMap<>();
+		for (String line : baseline) {
+			String[] fields = line.split("\t");
+			if (fields.length == 8 && !line.equals(HEADER)) {
+				base.put(key(fields), fields);
+			}
+		}
+		int regressions = 0;
+		for (String line : results) {
+			String[] fields = line.split("\t");
+			String[] old = base.get(key(fields));
+			if (line.equals(HEADER) || old == null || !isMeasured(fields) || !isMeasured(old)) {
+				continue;
+			}
+			double rate = Double.parseDouble(fields[4]);
+			double oldRate = Double.parseDouble(old[4]);
+			long rss = Long.parseLong(fields[5]);
+			long oldRss = Long.parseLong(old[5]);
+			if (rate < oldRate * (1 - threshold)) {
+				System.out.println(String.format("REGRESSION %s: %.0f beans/sec, baseline %.0f (%+.1f%%)",
+						key(fields).replace('\t', ' '), rate, oldRate, (rate / oldRate - 1) * 100));
+				regressions++;
+			}
+			if (rss > 0 && oldRss > 0 && rss > oldRss * (1 + threshold)) {
+				System.out.println(String.format("REGRESSION %s: peak RSS %d kB, baseline %d kB (%+.1f%%)",
+						key(fields).replace('\t', ' '), rss, oldRss, ((double) rss / oldRss - 1) * 100));
+				regressions++;
+			}
+		}
+		return regressions;
+	}
+
+	private static boolean isMeasured(String[] fields) {
+		return !fields[4].equals("skipped") && !fields[4].equals("failed");
+	}
+
+	private static long[] parseLongs(String list) {
+		return Arrays.stream(list.split(",")).mapToLong(s -> (long) Double.parseDouble(s.trim())).toArray();
+	}
+
+	/**
+	 * Prints usage information.
+	 */
+	public static void showUsage() {
+		System.out.println("Usage: java ScalingBenchmark [slots=n,...] [beans=n,...] [modes=mode,...] [threads=n,...]");
+		System.out.println("                             [budget=seconds] [out=file] [baseline=file] [threshold=fraction]");
+		System.out.println("Defaults: slots=10,100,1000,10000,100000 beans=1e3,1e4,...,1e9 modes=luck,skill");
+		System.out.println("          threads=1,<cores> budget=60 out=benchmark-results.tsv threshold=0.1");
+		System.out.println("Example: java ScalingBenchmark slots=10,1000 beans=1e3,1e6 baseline=benchmark-baseline.tsv");
+	}
+
+	/**
+	 * Main method. Runs the grid, or a single cell with --cell.
+	 *
+	 * @param args commandline arguments; see showUsage() for detailed information
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length == 5 && args[0].equals("--cell")) {
+			double[] result = runCell(Integer.parseInt(args[1]), Long.parseLong(args[2]), args[3],
+					Integer.parseInt(args[4]));
+			System.out.println(String.format("%s %.6f %d %d", RESULT, result[0], (long) result[1], (long) result[2]));
+			return;
+		}
+		long[] slots = {10, 100, 1000, 10000, 100000};
+		long[] beans = {1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+		String[] modes = {"luck", "skill"};
+		long[] threads = {1, Runtime.getRuntime().availableProcessors()};
+		double budget = 60;
+		String out = "benchmark-results.tsv";
+		String baseline = null;
+		double threshold = 0.1;
+		try {
+			for (String arg : args) {
+				String value = arg.substring(arg.indexOf('=') + 1);
+				if (arg.startsWith("slots=")) {
+					slots = parseLongs(value);
+				} else if (arg.startsWith("beans=")) {
+					beans = parseLongs(value);
+				} else if (arg.startsWith("modes=")) {
+					modes = value.split(",");
+				} else if (arg.startsWith("threads=")) {
+					threads = parseLongs(value);
+				} else if (arg.startsWith("budget=")) {
+					budget = Double.parseDouble(value);
+				} else if (arg.startsWith("out=")) {
+					out = value;
+				} else if (arg.startsWith("baseline=")) {
+					baseline = value;
+				} else if (arg.startsWith("threshold=")) {
+					threshold = Double.parseDouble(value);
+				} else {
+					showUsage();
+					return;
+				}
+			}
+		} catch (NumberFormatException ne) {
+			showUsage();
+			return;
+		}
+		Arrays.sort(beans);
+		threads = Arrays.stream(threads).distinct().toArray();
+
+		List<String> results = new ArrayList<>();
+		results.add(HEADER);
+		try (PrintWriter writer = new PrintWriter(out, "UTF-8")) {
+			writer.println(HEADER);
+			for (long slotCount : slots) {
+				for (String mode : modes) {
+					for (long threadCount : threads) {
+						boolean skip = false;
+						double lastSeconds = 0;
+						long lastBeans = 0;
+						for (long beanCount : beans) {
+							skip |= lastBeans > 0 && lastSeconds * beanCount / lastBeans > budget;
+							String cell = slotCount + "\t" + beanCount + "\t" + mode + "\t" + threadCount;
+							String line;
+							double[] r = null;
+							if (!skip) {
+								try {
+									r = runChild((int) slotCount, beanCount, mode, (int) threadCount, budget);
+									// Bigger cells would time out as well
+									skip = r == null;
+								} catch (IOException e) {
+									System.err.println(e.getMessage());
+								}
+							}
+							if (r != null) {
+								line = String.format("%s\t%.0f\t%d\t%d\t%.3f", cell, beanCount / r[0], (long) r[1],
+										(long) r[2], r[0]);
+								lastSeconds = r[0];
+								lastBeans = beanCount;
+							} else if (skip) {
+								line = cell + "\tskipped\t-1\t-1\t-1";
+							} else {
+								line = cell + "\tfailed\t-1\t-1\t-1";
+							}
+							System.out.println(line.replace('\t', ' '));
+							writer.println(line);
+							writer.flush();
+							results.add(line);
+						}
+					}
+				}
+			}
+		}
+		System.out.println("Results written to " + out);
+
+		if (baseline != null) {
+			File baselineFile = new File(baseline);
+			if (!baselineFile.exists()) {
+				Files.write(baselineFile.toPath(), results, StandardCharsets.UTF_8);
+				System.out.println("No baseline yet; saved these results as " + baseline);
+			} else {
+				int regressions = compare(results, Files.readAllLines(baselineFile.toPath(), StandardCharsets.UTF_8),
+						threshold);
+				System.out.println(regressions + " regression(s) above " + Math.round(threshold * 100) + "%");
+				if (regressions > 0) {
+					System.exit(1);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,274 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ShardedRun: Runs one experiment across several child JVMs on this host and
+ * merges their slot histograms.
+ *
+ * <p>
+ * Bean i of an experiment gets a Random seeded with beanSeed(seed, i), which
+ * only depends on the experiment seed and i. A bean's slot is then a function
+ * of its own Random alone, so any split of the bean range into shards, and any
+ * split of a shard into machines, gives the same merged histogram. In
+ * particular running with 0 processes (everything in this JVM) gives the same
+ * result as running with N.
+ *
+ * <p>
+ * The coordinator splits [0, bean_count) into one shard per process and
+ * starts each child with the same java binary and classpath. A child runs its
+ * shard in machines of at most MACHINE_BEANS beans, prints one line
+ * "HISTOGRAM count0 count1 ..." to stdout and exits. If a child cannot be
+ * started, exits with an error, prints no histogram or runs longer than
+ * CHILD_TIMEOUT_SECONDS (the system property ShardedRun.timeout, one hour by
+ * default; the child is then killed), its shard is run again, up to
+ * MAX_ATTEMPTS times. A bias specification is parsed before any child is
+ * started, so a malformed one fails once in the coordinator.
+ */
+
+public class ShardedRun {
+	static final int MACHINE_BEANS = 1 << 20;
+	static final int MAX_ATTEMPTS = 3;
+	static final long CHILD_TIMEOUT_SECONDS = Long.getLong("ShardedRun.timeout", 3600);
+
+	private static final String HISTOGRAM = "HISTOGRAM";
+
+	/**
+	 * Returns the seed of bean i's Random (the SplittableRandom mix of seed + i).
+	 *
+	 * @param seed the experiment seed
+	 * @param i    the bean index
+	 * @return the bean seed
+	 */
+	static long beanSeed(long seed, long i) {
+		long z = seed + (i + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Runs beans [start, end) of an experiment in this JVM.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @param start     the first bean index
+	 * @param end       one past the last bean index
+	 * @param mode      luck, skill or bias=...
+	 * @param seed      the experiment seed
+	 * @return the bean count of each slot
+	 */
+	static long[] runShard(int slotCount, long start, long end, String mode, long seed) {
+		long[] histogram = new long[slotCount];
+		PegBias bias = mode.startsWith("bias=") ? PegBias.parse(slotCount, mode.substring("bias=".length())) : null;
+		boolean luck = !mode.equals("skill");
+		for (long from = start; from < end; from += MACHINE_BEANS) {
+			int count = (int) Math.min(MACHINE_BEANS, end - from);
+			BeanCounterLogic logic;
+			if (luck && bias == null) {
+				// The lane engine replays exactly what BeanImpl would do
+				long[] seeds = new long[count];
+				for (int i = 0; i < count; i++) {
+					seeds[i] = beanSeed(seed, from + i);
+				}
+				LaneBeanCounterLogic lanes = new LaneBeanCounterLogic(slotCount);
+				lanes.reset(seeds);
+				logic = lanes;
+			} else {
+				BeanImpl[] beans = new BeanImpl[count];
+				for (int i = 0; i < count; i++) {
+					Random rand = new Random(beanSeed(seed, from + i));
+					beans[i] = bias != null ? new BeanImpl(slotCount, bias, rand) : new BeanImpl(slotCount, luck, rand);
+				}
+				logic = new BeanCounterLogicImpl(slotCount);
+				logic.reset(beans);
+			}
+			logic.runToCompletion();
+			for (int i = 0; i < slotCount; i++) {
+				histogram[i] += logic.getSlotBeanCount(i);
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Runs one shard in a child JVM, retrying if the child fails.
+	 *
+	 * @return the shard's histogram
+	 * @throws IOException if every attempt failed
+	 */
+	static long[] runChild(int slotCount, long start, long end, String mode, long seed)
+			throws IOException, InterruptedException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<String> command = Arrays.asList(java, "-cp", System.getProperty("java.class.path"),
+				ShardedRun.class.getName(), "--shard", String.valueOf(slotCount), String.valueOf(start),
+				String.valueOf(end), mode, String.valueOf(seed));
+		String failure = null;
+		for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+			String shard = "shard [" + start + ", " + end + ") attempt " + attempt;
+			// The child writes to a file rather than a pipe, so a hung child cannot
+			// keep the coordinator blocked on a read past the timeout
+			File output = File.createTempFile("shard", ".out");
+			try {
+				Process child;
+				try {
+					child = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT)
+							.redirectOutput(output).start();
+				} catch (IOException e) {
+					failure = shard + " could not start: " + e.getMessage();
+					System.err.println(failure + (attempt < MAX_ATTEMPTS ? ", retrying" : ""));
+					continue;
+				}
+				if (!child.waitFor(CHILD_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+					child.destroyForcibly().waitFor();
+					failure = shard + " timed out after " + CHILD_TIMEOUT_SECONDS + " s";
+					System.err.println(failure + (attempt < MAX_ATTEMPTS ? ", retrying" : ""));
+					continue;
+				}
+				long[] histogram = null;
+				for (String line : Files.readAllLines(output.toPath(), StandardCharsets.UTF_8)) {
+					if (line.startsWith(HISTOGRAM)) {
+						histogram = parseHistogram(line, slotCount);
+					}
+				}
+				int exit = child.exitValue();
+				if (exit == 0 && histogram != null) {
+					return histogram;
+				}
+				failure = shard + " failed with exit code " + exit;
+				System.err.println(failure + (attempt < MAX_ATTEMPTS ? ", retrying" : ""));
+			} finally {
+				output.delete();
+			}
+		}
+		throw new IOException(failure);
+	}
+
+	private static long[] parseHistogram(String line, int slotCount) {
+		String[] parts = line.trim().split("\\s+");
+		if (parts.length != slotCount + 1) {
+			return null;
+		}
+		long[] histogram = new long[slotCount];
+		for (int i = 0; i < slotCount; i++) {
+			histogram[i] = Long.parseLong(parts[i + 1]);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Runs the whole experiment, split over the given number of child JVMs (or in
+	 * this JVM if processes is 0), and merges the histograms.
+	 *
+	 * @return the merged histogram
+	 * @throws IOException              if a shard failed on every attempt
+	 * @throws IllegalArgumentException if mode is a malformed bias specification
+	 */
+	static long[] run(int slotCount, long beanCount, String mode, long seed, int processes)
+			throws IOException, InterruptedException {
+		if (mode.startsWith("bias=")) {
+			// Fail here rather than in every child
+			PegBias.parse(slotCount, mode.substring("bias=".length()));
+		}
+		if (processes == 0) {
+			return runShard(slotCount, 0, beanCount, mode, seed);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(processes);
+		List<Future<long[]>> shards = new ArrayList<>();
+		for (int p = 0; p < processes; p++) {
+			long start = beanCount * p / processes;
+			long end = beanCount * (p + 1) / processes;
+			shards.add(pool.submit(() -> runChild(slotCount, start, end, mode, seed)));
+		}
+		pool.shutdown();
+		long[] merged = new long[slotCount];
+		try {
+			for (Future<long[]> shard : shards) {
+				long[] histogram = shard.get();
+				for (int i = 0; i < slotCount; i++) {
+					merged[i] += histogram[i];
+				}
+			}
+		} catch (ExecutionException e) {
+			pool.shutdownNow();
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+		return merged;
+	}
+
+	private static void printHistogram(String prefix, long[] histogram) {
+		StringBuilder bld = new StringBuilder(prefix);
+		for (long count : histogram) {
+			bld.append(' ').append(count);
+		}
+		System.out.println(bld);
+	}
+
+	/**
+	 * Prints usage information.
+	 */
+	public static void showUsage() {
+		System.out.println("Usage: java ShardedRun slot_count bean_count <luck | skill | bias=p[,p...]> processes [seed]");
+		System.out.println("Example: java ShardedRun 10 100000000 luck 4 1234");
+		System.out.println("Example: java ShardedRun 10 100000000 luck 0 1234 (same result, in one JVM)");
+	}
+
+	/**
+	 * Main method. Runs as the coordinator, or as a child with --shard.
+	 *
+	 * @param args commandline arguments; see showUsage() for detailed information
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length == 6 && args[0].equals("--shard")) {
+			long[] histogram = runShard(Integer.parseInt(args[1]), Long.parseLong(args[2]), Long.parseLong(args[3]),
+					args[4], Long.parseLong(args[5]));
+			printHistogram(HISTOGRAM, histogram);
+			return;
+		}
+		if (args.length != 4 && args.length != 5) {
+			showUsage();
+			return;
+		}
+		int slotCount;
+		long beanCount;
+		int processes;
+		long seed = System.nanoTime();
+		try {
+			slotCount = Integer.parseInt(args[0]);
+			beanCount = Long.parseLong(args[1]);
+			processes = Integer.parseInt(args[3]);
+			if (args.length == 5) {
+				seed = Long.parseLong(args[4]);
+			}
+		} catch (NumberFormatException ne) {
+			showUsage();
+			return;
+		}
+		String mode = args[2];
+		if (slotCount < 1 || beanCount < 0 || processes < 0
+				|| !(mode.equals("luck") || mode.equals("skill") || mode.startsWith("bias="))) {
+			showUsage();
+			return;
+		}
+		long[] histogram;
+		try {
+			histogram = run(slotCount, beanCount, mode, seed, processes);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			showUsage();
+			return;
+		}
+		System.out.println("Seed: " + seed);
+		System.out.println("Slot bean counts:");
+		printHistogram("", histogram);
+	}
+}
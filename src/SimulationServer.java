@@ -0,0 +1,344 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * SimulationServer: A long-running local server that runs bean counter
+ * experiments, so that tools do not pay for JVM startup and JIT warmup on every
+ * run.
+ *
+ * <p>
+ * The server listens on a localhost socket and speaks a line protocol. Each
+ * request line is one job:
+ *
+ * <pre>
+ * id slot_count bean_count &lt;luck | skill | bias=p[,p...]&gt; seed [impl | lanes]
+ * </pre>
+ *
+ * <p>
+ * and each job is answered with one line, in completion order:
+ *
+ * <pre>
+ * id OK count0 count1 ...
+ * id ERR message
+ * </pre>
+ *
+ * <p>
+ * A client may pipeline any number of jobs on one connection. Jobs from all
+ * connections go through one queue; a dispatcher drains it in batches of up to
+ * MAX_BATCH_JOBS small jobs (or MAX_BATCH_COST beans times slots) and hands
+ * each batch to the shared worker pool, so a burst of tiny jobs costs one task
+ * hand-off instead of one per job. A job of SMALL_JOB_COST or more is handed
+ * off on its own, so small jobs never wait behind it in a batch. Jobs with more
+ * than MAX_SLOT_COUNT slots or MAX_BEAN_COUNT beans are rejected, and a job
+ * that fails in any way, even with an Error, is answered with ERR. Bean i of a
+ * job gets a Random seeded with the i-th nextLong() of new Random(seed), so
+ * both engines give the same histogram for the same seed.
+ */
+
+public class SimulationServer {
+	static final int MAX_SLOT_COUNT = 1 << 16;
+	static final int MAX_BEAN_COUNT = 1 << 22;
+
+	private static final int MAX_BATCH_JOBS = 64;
+	private static final long SMALL_JOB_COST = 1 << 16;
+	private static final long MAX_BATCH_COST = 1 << 18;
+
+	private final BlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+	private final ExecutorService workers;
+
+	/**
+	 * A client connection: where answers go, and how many of its jobs are still
+	 * unanswered.
+	 */
+	private static final class Connection {
+		final Writer out;
+		int pending;
+
+		Connection(Writer out) {
+			this.out = out;
+		}
+
+		synchronized void reply(String line) {
+			try {
+				out.write(line);
+				out.write('\n');
+				out.flush();
+			} catch (IOException e) {
+				// The client went away; nothing to answer to
+			}
+		}
+
+		synchronized void finish(String line) {
+			reply(line);
+			pending--;
+			notifyAll();
+		}
+
+		synchronized void awaitAnswers() throws InterruptedException {
+			while (pending > 0) {
+				wait();
+			}
+		}
+	}
+
+	/**
+	 * A parsed job plus the connection its answer goes to.
+	 */
+	private static final class Job {
+		final String id;
+		final int slotCount;
+		final int beanCount;
+		final String mode;
+		final long seed;
+		final boolean lanes;
+		final Connection conn;
+
+		Job(String line, Connection conn) {
+			String[] parts = line.trim().split("\\s+");
+			this.conn = conn;
+			this.id = parts[0];
+			if (parts.length != 5 && parts.length != 6) {
+				throw new IllegalArgumentException("expected: id slot_count bean_count mode seed [impl | lanes]");
+			}
+			slotCount = Integer.parseInt(parts[1]);
+			beanCount = Integer.parseInt(parts[2]);
+			mode = parts[3];
+			seed = Long.parseLong(parts[4]);
+			lanes = parts.length == 6 && parts[5].equals("lanes");
+			if (slotCount < 1 || beanCount < 0) {
+				throw new IllegalArgumentException("slot_count must be positive and bean_count non-negative");
+			}
+			if (slotCount > MAX_SLOT_COUNT || beanCount > MAX_BEAN_COUNT) {
+				throw new IllegalArgumentException("at most " + MAX_SLOT_COUNT + " slots and " + MAX_BEAN_COUNT
+						+ " beans per job");
+			}
+			if (parts.length == 6 && !lanes && !parts[5].equals("impl")) {
+				throw new IllegalArgumentException("unknown engine " + parts[5]);
+			}
+			if (lanes && !mode.equals("luck")) {
+				throw new IllegalArgumentException("the lanes engine only supports luck mode");
+			}
+			if (!mode.equals("luck") && !mode.equals("skill") && !mode.startsWith("bias=")) {
+				throw new IllegalArgumentException("unknown mode " + mode);
+			}
+		}
+
+		/**
+		 * Returns the relative cost of running the job.
+		 */
+		long cost() {
+			return (long) beanCount * slotCount;
+		}
+	}
+
+	/**
+	 * Constructor - creates the server with the given number of worker threads.
+	 *
+	 * @param threads the number of worker threads
+	 */
+	public SimulationServer(int threads) {
+		workers = Executors.newFixedThreadPool(threads);
+		Thread dispatcher = new Thread(this::dispatch, "SimulationServer-dispatcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * Runs a job to completion.
+	 *
+	 * @param job the job
+	 * @return the bean count of each slot
+	 */
+	static int[] run(Job job) {
+		Random seeds = new Random(job.seed);
+		BeanCounterLogic logic;
+		if (job.lanes) {
+			long[] beanSeeds = new long[job.beanCount];
+			for (int i = 0; i < job.beanCount; i++) {
+				beanSeeds[i] = seeds.nextLong();
+			}
+			LaneBeanCounterLogic lanes = new LaneBeanCounterLogic(job.slotCount);
+			lanes.reset(beanSeeds);
+			logic = lanes;
+		} else {
+			PegBias bias = job.mode.startsWith("bias=")
+					? PegBias.parse(job.slotCount, job.mode.substring("bias=".length())) : null;
+			boolean luck = !job.mode.equals("skill");
+			BeanImpl[] beans = new BeanImpl[job.beanCount];
+			for (int i = 0; i < job.beanCount; i++) {
+				Random rand = new Random(seeds.nextLong());
+				beans[i] = bias != null ? new BeanImpl(job.slotCount, bias, rand)
+						: new BeanImpl(job.slotCount, luck, rand);
+			}
+			logic = new BeanCounterLogicImpl(job.slotCount);
+			logic.reset(beans);
+		}
+		logic.runToCompletion();
+		int[] counts = new int[job.slotCount];
+		for (int i = 0; i < job.slotCount; i++) {
+			counts[i] = logic.getSlotBeanCount(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Runs a job and answers it. The job is always answered, whatever it throws,
+	 * so that its connection does not wait for it forever.
+	 */
+	private static void answer(Job job) {
+		String answer = job.id + " ERR internal error";
+		try {
+			StringBuilder bld = new StringBuilder(job.id).append(" OK");
+			for (int count : run(job)) {
+				bld.append(' ').append(count);
+			}
+			answer = bld.toString();
+		} catch (Throwable e) {
+			answer = job.id + " ERR " + (e.getMessage() != null ? e.getMessage() : e.toString());
+		} finally {
+			job.conn.finish(answer);
+		}
+	}
+
+	private void submit(List<Job> batch) {
+		workers.execute(() -> {
+			for (Job job : batch) {
+				answer(job);
+			}
+		});
+	}
+
+	/**
+	 * Takes jobs off the queue and submits them to the workers: large jobs on
+	 * their own, small jobs in batches.
+	 */
+	private void dispatch() {
+		while (true) {
+			Job first;
+			try {
+				first = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (first.cost() >= SMALL_JOB_COST) {
+				submit(Collections.singletonList(first));
+				continue;
+			}
+			List<Job> batch = new ArrayList<>();
+			batch.add(first);
+			long cost = first.cost();
+			Job next;
+			while (batch.size() < MAX_BATCH_JOBS && cost < MAX_BATCH_COST && (next = queue.poll()) != null) {
+				if (next.cost() >= SMALL_JOB_COST) {
+					submit(Collections.singletonList(next));
+				} else {
+					batch.add(next);
+					cost += next.cost();
+				}
+			}
+			submit(batch);
+		}
+	}
+
+	/**
+	 * Reads job lines from one client connection and queues them.
+	 *
+	 * @param socket the client connection
+	 */
+	private void serve(Socket socket) {
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(
+						new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+				Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+			s.setTcpNoDelay(true);
+			Connection conn = new Connection(out);
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				Job job;
+				try {
+					job = new Job(line, conn);
+				} catch (RuntimeException e) {
+					conn.reply(line.trim().split("\\s+")[0] + " ERR " + e.getMessage());
+					continue;
+				}
+				synchronized (conn) {
+					conn.pending++;
+				}
+				queue.add(job);
+			}
+			// Let the queued jobs of this connection answer before closing
+			conn.awaitAnswers();
+		} catch (IOException | InterruptedException e) {
+			// Connection closed
+		}
+	}
+
+	/**
+	 * Accepts connections on localhost until the process is killed.
+	 *
+	 * @param port the port to listen on
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public void listen(int port) throws IOException {
+		try (ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress())) {
+			System.out.println("SimulationServer listening on " + server.getLocalSocketAddress());
+			while (true) {
+				Socket socket = server.accept();
+				Thread t = new Thread(() -> serve(socket), "SimulationServer-client");
+				t.setDaemon(true);
+				t.start();
+			}
+		}
+	}
+
+	/**
+	 * Prints usage information.
+	 */
+	public static void showUsage() {
+		System.out.println("Usage: java SimulationServer port [threads]");
+		System.out.println("Example: java SimulationServer 7632 8");
+	}
+
+	/**
+	 * Main method. Starts the server.
+	 *
+	 * @param args commandline arguments; see showUsage() for detailed information
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1 && args.length != 2) {
+			showUsage();
+			return;
+		}
+		int port;
+		int threads = Runtime.getRuntime().availableProcessors();
+		try {
+			port = Integer.parseInt(args[0]);
+			if (args.length == 2) {
+				threads = Integer.parseInt(args[1]);
+			}
+		} catch (NumberFormatException ne) {
+			showUsage();
+			return;
+		}
+		new SimulationServer(threads).listen(port);
+	}
+}
@@ -0,0 +1,94 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SnapshotPublisher: Publishes the state of a BeanCounterLogic from the
+ * simulation thread to any number of reader threads without locks, using a
+ * sequence lock.
+ *
+ * <p>
+ * The writer makes the sequence odd, writes the state, and makes it even
+ * again. A reader reads the sequence, copies the state and reads the sequence
+ * again; if it was odd or has changed, a write overlapped the copy and the
+ * reader tries again. Writers never wait for readers. All writes are ordered
+ * (lazySet) stores and all reads are volatile loads, so a reader that sees any
+ * value of a newer write also sees the sequence it bumped.
+ *
+ * <p>
+ * Only one thread may write. The version of a snapshot is the number of
+ * completed writes.
+ */
+
+public class SnapshotPublisher {
+	private static final int SPINS_BEFORE_YIELD = 64;
+
+	private final int slotCount;
+	private final AtomicLong sequence = new AtomicLong();
+	// In-flight x-positions, then slot bean counts, then the remaining bean count
+	private final AtomicIntegerArray state;
+
+	/**
+	 * Constructor - creates a publisher whose first snapshot is an empty machine.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 */
+	public SnapshotPublisher(int slotCount) {
+		this.slotCount = slotCount;
+		state = new AtomicIntegerArray(2 * slotCount + 1);
+		for (int y = 0; y < slotCount; y++) {
+			state.lazySet(y, BeanCounterLogic.NO_BEAN_IN_YPOS);
+		}
+	}
+
+	/**
+	 * Starts a write. Must be followed by endWrite().
+	 */
+	public void beginWrite() {
+		sequence.lazySet(sequence.get() + 1);
+	}
+
+	public void setInFlightXPos(int yPos, int xPos) {
+		state.lazySet(yPos, xPos);
+	}
+
+	public void setSlotBeanCount(int i, int count) {
+		state.lazySet(slotCount + i, count);
+	}
+
+	public void setRemainingBeanCount(int count) {
+		state.lazySet(2 * slotCount, count);
+	}
+
+	/**
+	 * Ends a write and makes it visible to readers.
+	 */
+	public void endWrite() {
+		sequence.lazySet(sequence.get() + 1);
+	}
+
+	/**
+	 * Copies the most recently published state.
+	 *
+	 * @param out receives the state and its version
+	 * @return the version of the copied state
+	 */
+	public long read(LogicSnapshot out) {
+		for (int attempt = 1;; attempt++) {
+			long before = sequence.get();
+			if ((before & 1) == 0) {
+				for (int y = 0; y < slotCount; y++) {
+					out.inFlightXPos[y] = state.get(y);
+					out.slotBeanCounts[y] = state.get(slotCount + y);
+				}
+				out.remainingBeanCount = state.get(2 * slotCount);
+				if (sequence.get() == before) {
+					out.version = before >>> 1;
+					return out.version;
+				}
+			}
+			if (attempt % SPINS_BEFORE_YIELD == 0) {
+				Thread.yield();
+			}
+		}
+	}
+}
@@ -0,0 +1,288 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * SweepRun: Runs every cell of a grid of slot counts, bean counts, modes and
+ * seeds, keeping finished cells in an on-disk cache so that an interrupted or
+ * extended sweep only runs the cells that are missing.
+ *
+ * <p>
+ * A cell is one experiment run with ShardedRun.runShard, so its slot bean
+ * counts are the same as those of ShardedRun and BatchRun for the same seed.
+ * Cells run on a work-stealing ForkJoinPool and are submitted biggest first
+ * (by beans, times slots unless in skill mode, where a bean costs the same
+ * whatever the slot count), so one large cell does not start last and hold up
+ * the end of the sweep.
+ *
+ * <p>
+ * The cache is a tab-separated file with one line per finished cell:
+ *
+ * <pre>
+ * slots beans mode seed slot_bean_counts
+ * </pre>
+ *
+ * <p>
+ * where the slot bean counts are separated by spaces. A line is appended and
+ * flushed as soon as its cell finishes, and lines that do not parse (such as a
+ * line cut short when a sweep was killed) are ignored when the cache is read.
+ * Before appending, a cache that does not end with a newline is given one, so
+ * the first new line does not run into a cut-short one.
+ * When the sweep is done, the results of the whole grid are written to the
+ * output file in grid order, in the same format.
+ */
+
+public class SweepRun {
+
+	/**
+	 * Cell: One experiment of the grid.
+	 */
+	static class Cell {
+		final int slotCount;
+		final long beanCount;
+		final String mode;
+		final long seed;
+
+		Cell(int slotCount, long beanCount, String mode, long seed) {
+			this.slotCount = slotCount;
+			this.beanCount = beanCount;
+			this.mode = mode;
+			this.seed = seed;
+		}
+
+		String key() {
+			return slotCount + "\t" + beanCount + "\t" + mode + "\t" + seed;
+		}
+
+		/**
+		 * Returns the relative cost of running the cell.
+		 */
+		double cost() {
+			return mode.equals("skill") ? beanCount : (double) beanCount * slotCount;
+		}
+	}
+
+	/**
+	 * Formats the cache line of a finished cell.
+	 */
+	static String format(Cell cell, long[] counts) {
+		StringBuilder bld = new StringBuilder(cell.key()).append('\t');
+		for (int i = 0; i < counts.length; i++) {
+			if (i > 0) {
+				bld.append(' ');
+			}
+			bld.append(counts[i]);
+		}
+		return bld.toString();
+	}
+
+	/**
+	 * Reads the cache, keyed by cell, skipping lines that do not parse.
+	 *
+	 * @param cache the cache file, which need not exist
+	 * @return the cached lines by cell key
+	 */
+	static Map<String, String> readCache(File cache) throws IOException {
+		Map<String, String> cells = new HashMap<>();
+		if (!cache.exists()) {
+			return cells;
+		}
+		for (String line : Files.readAllLines(cache.toPath(), StandardCharsets.UTF_8)) {
+			String[] fields = line.split("\t");
+			if (fields.length != 5 || !(fields[2].equals("luck") || fields[2].equals("skill"))) {
+				continue;
+			}
+			try {
+				int slotCount = Integer.parseInt(fields[0]);
+				long beanCount = Long.parseLong(fields[1]);
+				Long.parseLong(fields[3]);
+				long sum = 0;
+				String[] counts = fields[4].split(" ");
+				for (String count : counts) {
+					sum += Long.parseLong(count);
+				}
+				if (counts.length == slotCount && sum == beanCount) {
+					cells.put(fields[0] + "\t" + fields[1] + "\t" + fields[2] + "\t" + fields[3], line);
+				}
+			} catch (NumberFormatException ne) {
+				// A partly written line; the cell is run again
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * Appends a newline to the cache if it is not empty and does not end with
+	 * one.
+	 */
+	static void terminateLastLine(File cache) throws IOException {
+		if (!cache.exists() || cache.length() == 0) {
+			return;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(cache, "rw")) {
+			file.seek(file.length() - 1);
+			if (file.read() != '\n') {
+				file.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * Runs the cells that are not in the cache yet and appends each to the cache
+	 * as it finishes.
+	 *
+	 * @param cells   the grid
+	 * @param cache   the cache file
+	 * @param threads the number of worker threads
+	 * @return the result lines of all cells, in grid order
+	 */
+	static List<String> sweep(List<Cell> cells, File cache, int threads)
+			throws IOException, InterruptedException {
+		Map<String, String> done = readCache(cache);
+		List<Cell> missing = new ArrayList<>();
+		for (Cell cell : cells) {
+			if (!done.containsKey(cell.key())) {
+				missing.add(cell);
+			}
+		}
+		missing.sort((a, b) -> Double.compare(b.cost(), a.cost()));
+		System.out.println(cells.size() + " cells, " + (cells.size() - missing.size()) + " cached, " + missing.size()
+				+ " to run");
+
+		terminateLastLine(cache);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(cache, true),
+				StandardCharsets.UTF_8))) {
+			List<Future<?>> futures = new ArrayList<>();
+			for (Cell cell : missing) {
+				futures.add(pool.submit(() -> {
+					String line = format(cell, ShardedRun.runShard(cell.slotCount, 0, cell.beanCount, cell.mode,
+							cell.seed));
+					synchronized (writer) {
+						writer.println(line);
+						writer.flush();
+						done.put(cell.key(), line);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("sweep cell failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		List<String> results = new ArrayList<>();
+		for (Cell cell : cells) {
+			results.add(done.get(cell.key()));
+		}
+		return results;
+	}
+
+	private static long[] parseLongs(String list) {
+		if (list.contains("..")) {
+			long from = Long.parseLong(list.substring(0, list.indexOf("..")).trim());
+			long to = Long.parseLong(list.substring(list.indexOf("..") + 2).trim());
+			long[] values = new long[(int) Math.max(0, to - from + 1)];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = from + i;
+			}
+			return values;
+		}
+		return Arrays.stream(list.split(",")).mapToLong(s -> (long) Double.parseDouble(s.trim())).toArray();
+	}
+
+	/**
+	 * Prints usage information.
+	 */
+	public static void showUsage() {
+		System.out.println("Usage: java SweepRun [slots=n,...] [beans=n,...] [modes=mode,...] [seeds=n,... | seeds=a..b]");
+		System.out.println("                     [threads=n] [cache=file] [out=file]");
+		System.out.println("Defaults: slots=10 beans=1000 modes=luck,skill seeds=1 threads=<cores>");
+		System.out.println("          cache=sweep-cache.tsv out=sweep-results.tsv");
+		System.out.println("Example: java SweepRun slots=5,10,20 beans=1e3,1e5 seeds=1..10");
+	}
+
+	/**
+	 * Main method. Runs the sweep and writes its results.
+	 *
+	 * @param args commandline arguments; see showUsage() for detailed information
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		long[] slots = {10};
+		long[] beans = {1000};
+		String[] modes = {"luck", "skill"};
+		long[] seeds = {1};
+		int threads = Runtime.getRuntime().availableProcessors();
+		String cache = "sweep-cache.tsv";
+		String out = "sweep-results.tsv";
+		try {
+			for (String arg : args) {
+				String value = arg.substring(arg.indexOf('=') + 1);
+				if (arg.startsWith("slots=")) {
+					slots = parseLongs(value);
+				} else if (arg.startsWith("beans=")) {
+					beans = parseLongs(value);
+				} else if (arg.startsWith("modes=")) {
+					modes = value.split(",");
+				} else if (arg.startsWith("seeds=")) {
+					seeds = parseLongs(value);
+				} else if (arg.startsWith("threads=")) {
+					threads = Integer.parseInt(value);
+				} else if (arg.startsWith("cache=")) {
+					cache = value;
+				} else if (arg.startsWith("out=")) {
+					out = value;
+				} else {
+					showUsage();
+					return;
+				}
+			}
+		} catch (NumberFormatException ne) {
+			showUsage();
+			return;
+		}
+		for (String mode : modes) {
+			if (!mode.equals("luck") && !mode.equals("skill")) {
+				showUsage();
+				return;
+			}
+		}
+		if (threads < 1 || Arrays.stream(slots).anyMatch(s -> s < 1 || s > Integer.MAX_VALUE)
+				|| Arrays.stream(beans).anyMatch(b -> b < 0)) {
+			showUsage();
+			return;
+		}
+
+		List<Cell> cells = new ArrayList<>();
+		for (long slotCount : slots) {
+			for (long beanCount : beans) {
+				for (String mode : modes) {
+					for (long seed : seeds) {
+						cells.add(new Cell((int) slotCount, beanCount, mode, seed));
+					}
+				}
+			}
+		}
+		long start = System.nanoTime();
+		List<String> results = sweep(cells, new File(cache), threads);
+		Files.write(new File(out).toPath(), results, StandardCharsets.UTF_8);
+		System.out.println(String.format("Done in %.3f s; results written to %s", (System.nanoTime() - start) / 1e9,
+				out));
+	}
+}
@@ -1,20 +1,51 @@
+import gov.nasa.jpf.vm.Verify;
+import org.junit.runner.Computer;
+import org.junit.runner.Description;
 import org.junit.runner.JUnitCore;
 import org.junit.runner.Result;
+import org.junit.runner.Runner;
 import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runners.ParentRunner;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.junit.runners.model.RunnerScheduler;
 
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class TestRunner {
+	// Where the timing report is written after a (non-JPF) run
+	private static final String TIMING_REPORT = "test_timing.txt";
+
+	// How many entries of each kind to list in the timing report
+	private static final int REPORT_TOP = 10;
+
 	/**
 	 * Main method
 	 *
-	 * @param args IGNORED, kept for compatibility
+	 * @param args "buggy" to test the buggy implementation, "serial" to run test
+	 *             classes one after another
 	 */
 	public static void main(String[] args) {
 
-		if (args.length > 0 && args[0].equals("buggy")) {
-			Config.setBuggyBeanCounterLogic(true);
-			System.out.println("TESTING BUGGY IMPLEMENTATION\n");
+		boolean serial = false;
+		for (String arg : args) {
+			if (arg.equals("buggy")) {
+				Config.setBuggyBeanCounterLogic(true);
+				System.out.println("TESTING BUGGY IMPLEMENTATION\n");
+			} else if (arg.equals("serial")) {
+				serial = true;
+			}
 		}
 
 		ArrayList<Class> classesToTest = new ArrayList<Class>();
@@ -22,30 +53,176 @@ public class TestRunner {
 
 		// ADD ANY CLASSES YOU WISH TO TEST HERE
 		classesToTest.add(BeanCounterLogicTest.class);
+		if (!Verify.isRunningInJPF()) {
+			// Plain unit tests of the components and large machine configurations;
+			// they make no Verify choices, so JPF would only run them once, very
+			// slowly
+			classesToTest.add(BeanCounterConfigurationTest.class);
+			classesToTest.add(BeanFactoryTest.class);
+			classesToTest.add(BeanQueueTest.class);
+			classesToTest.add(PegBiasTest.class);
+			classesToTest.add(TimelineTest.class);
+			classesToTest.add(LandingEventPublisherTest.class);
+			classesToTest.add(LaneBeanCounterLogicTest.class);
+			classesToTest.add(ConcurrentBeanCounterLogicTest.class);
+			classesToTest.add(OffHeapBeanCounterLogicTest.class);
+		}
+
+		// Under JPF, threads only multiply the state space and the report is
+		// meaningless, so keep the original one-class-at-a-time loop there.
+
+		if (serial || Verify.isRunningInJPF()) {
+			for (Class c : classesToTest) {
+				Result r = JUnitCore.runClasses(c);
+
+				// Print out any failures for this class.
+
+				for (Failure f : r.getFailures()) {
+					System.out.println(f.toString());
+					//System.out.println(f.getTrace());
+				}
+
+				// If r is not successful, there was at least one
+				// failure. Thus, set anyFailures to true - this
+				// can never be set back to false (no amount of
+				// successes will ever eclipse the fact that there
+				// was at least one failure.
+
+				if (!r.wasSuccessful()) {
+					anyFailures = true;
+				}
+			}
+			System.exit(anyFailures ? 1 : 0);
+		}
+
+		// Otherwise run all test classes, and the configurations of any
+		// parameterized class, in parallel while timing every test.
+
+		TimingListener timing = new TimingListener();
+		JUnitCore core = new JUnitCore();
+		core.addListener(timing);
+		Result r = core.run(new ConfigurationParallelComputer(), classesToTest.toArray(new Class[0]));
+
+		for (Failure f : r.getFailures()) {
+			System.out.println(f.toString());
+		}
+		if (!r.wasSuccessful()) {
+			anyFailures = true;
+		}
+
+		try (PrintWriter out = new PrintWriter(TIMING_REPORT)) {
+			timing.report(out, r.getRunTime());
+		} catch (FileNotFoundException e) {
+			System.out.println("Could not write " + TIMING_REPORT + ": " + e.getMessage());
+		}
+		System.exit(anyFailures ? 1 : 0);
+	}
+
+	/**
+	 * A Computer that runs test classes in parallel, and also the children of any
+	 * Suite-based runner (such as the per-configuration runners of a Parameterized
+	 * class). Test methods of a plain class are still run one after another, since
+	 * test classes like BeanCounterLogicTest keep their fixture in static fields.
+	 */
+	static class ConfigurationParallelComputer extends Computer {
+		@Override
+		public Runner getSuite(RunnerBuilder builder, Class<?>[] classes) throws InitializationError {
+			return parallelize(super.getSuite(builder, classes));
+		}
 
-		// For all test classes added, loop through and use JUnit
-		// to run them.
+		@Override
+		protected Runner getRunner(RunnerBuilder builder, Class<?> testClass) throws Throwable {
+			Runner runner = super.getRunner(builder, testClass);
+			return runner instanceof Suite ? parallelize(runner) : runner;
+		}
 
-		for (Class c : classesToTest) {
-			Result r = JUnitCore.runClasses(c);
+		private static Runner parallelize(Runner runner) {
+			if (runner instanceof ParentRunner) {
+				((ParentRunner<?>) runner).setScheduler(new RunnerScheduler() {
+					private final ExecutorService pool = Executors
+							.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 
-			// Print out any failures for this class.
+					public void schedule(Runnable childStatement) {
+						pool.submit(childStatement);
+					}
 
-			for (Failure f : r.getFailures()) {
-				System.out.println(f.toString());
-				//System.out.println(f.getTrace());
+					public void finished() {
+						pool.shutdown();
+						try {
+							pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				});
 			}
+			return runner;
+		}
+	}
 
-			// If r is not successful, there was at least one
-			// failure. Thus, set anyFailures to true - this
-			// can never be set back to false (no amount of
-			// successes will ever eclipse the fact that there
-			// was at least one failure.
+	/**
+	 * Records the duration of every test and aggregates it per test class and per
+	 * configuration. A configuration is the bracketed parameter suffix that
+	 * Parameterized appends to method names, e.g. "testReset[3]".
+	 */
+	@RunListener.ThreadSafe
+	static class TimingListener extends RunListener {
+		private final Map<Description, Long> started = new ConcurrentHashMap<>();
+		private final Map<String, Long> tests = new ConcurrentHashMap<>();
+		private final Map<String, Long> classes = new ConcurrentHashMap<>();
+		private final Map<String, Long> configurations = new ConcurrentHashMap<>();
 
-			if (!r.wasSuccessful()) {
-				anyFailures = true;
+		@Override
+		public void testStarted(Description description) {
+			started.put(description, System.nanoTime());
+		}
+
+		@Override
+		public void testFinished(Description description) {
+			Long start = started.remove(description);
+			if (start == null) {
+				return;
+			}
+			long elapsed = System.nanoTime() - start;
+			String className = String.valueOf(description.getClassName());
+			tests.merge(description.getDisplayName(), elapsed, Long::sum);
+			classes.merge(className, elapsed, Long::sum);
+			String method = description.getMethodName();
+			int bracket = method == null ? -1 : method.indexOf('[');
+			if (bracket >= 0) {
+				configurations.merge(className + method.substring(bracket), elapsed, Long::sum);
 			}
+		}
 
+		/**
+		 * Writes the slowest classes, configurations and tests.
+		 *
+		 * @param out       where to write the report
+		 * @param wallClock total wall-clock run time in ms
+		 */
+		void report(PrintWriter out, long wallClock) {
+			long total = 0;
+			for (long t : tests.values()) {
+				total += t;
+			}
+			out.printf("Wall clock: %d ms, summed test time: %d ms, tests: %d%n", wallClock,
+					TimeUnit.NANOSECONDS.toMillis(total), tests.size());
+			section(out, "Slowest test classes", classes);
+			section(out, "Slowest configurations", configurations);
+			section(out, "Slowest tests", tests);
+		}
+
+		private static void section(PrintWriter out, String title, Map<String, Long> times) {
+			out.printf("%n%s:%n", title);
+			if (times.isEmpty()) {
+				out.println("  (none)");
+				return;
+			}
+			List<Map.Entry<String, Long>> entries = new ArrayList<>(times.entrySet());
+			Collections.sort(entries, (a, b) -> Long.compare(b.getValue(), a.getValue()));
+			for (Map.Entry<String, Long> e : entries.subList(0, Math.min(REPORT_TOP, entries.size()))) {
+				out.printf("  %10.3f ms  %s%n", e.getValue() / 1e6, e.getKey());
+			}
 		}
 	}
 }
@@ -0,0 +1,168 @@
+/**
+ * Timeline: A bounded history of the observable state of a BeanCounterLogic,
+ * used to scrub back to earlier frames of a run without re-simulating.
+ *
+ * <p>
+ * A frame is recorded after every step and every other operation. Each frame
+ * keeps a small delta: the remaining bean count, the in-flight x-position of
+ * every row, and the slot a bean landed in (if any). Every KEYFRAME_INTERVAL
+ * frames, and whenever the slots changed in some other way than one bean
+ * landing (upperHalf, lowerHalf, repeat, reset), a keyframe with all slot
+ * counts is stored as well. Seeking to a frame copies the nearest earlier
+ * keyframe and replays at most KEYFRAME_INTERVAL landings.
+ *
+ * <p>
+ * Frames and keyframes live in preallocated ring buffers, so recording does
+ * not allocate and only the most recent frames can be sought to.
+ */
+
+public class Timeline {
+	public static final int KEYFRAME_INTERVAL = 64;
+
+	private static final int NO_LANDING = -1;
+
+	private final int slotCount;
+	private final int capacity;			// Number of frames kept
+	private final int keyframeCapacity;	// Number of keyframes kept
+
+	// Frame ring, indexed by frame % capacity
+	private final int[] remaining;
+	private final int[] inFlight;		// slotCount entries per frame
+	private final int[] landedSlot;
+
+	// Keyframe ring, indexed by keyframe number % keyframeCapacity
+	private final long[] keyframeFrame;
+	private final int[] keyframeSlots;	// slotCount entries per keyframe
+	private long keyframeCount;
+
+	private final int[] lastSlots;		// Slot counts of the newest frame
+	private long lastFrame = -1;
+
+	/**
+	 * Constructor - creates an empty timeline.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @param capacity  the number of most recent frames to keep
+	 * @throws IllegalArgumentException if capacity is less than
+	 *                                  KEYFRAME_INTERVAL, since then the kept
+	 *                                  frames might hold no keyframe to seek from
+	 */
+	public Timeline(int slotCount, int capacity) {
+		if (capacity < KEYFRAME_INTERVAL) {
+			throw new IllegalArgumentException(
+					"capacity " + capacity + " is less than KEYFRAME_INTERVAL " + KEYFRAME_INTERVAL);
+		}
+		this.slotCount = slotCount;
+		this.capacity = capacity;
+		// Enough for the periodic keyframes plus plenty of forced ones
+		this.keyframeCapacity = capacity / KEYFRAME_INTERVAL * 2 + 16;
+		remaining = new int[capacity];
+		inFlight = new int[capacity * slotCount];
+		landedSlot = new int[capacity];
+		keyframeFrame = new long[keyframeCapacity];
+		keyframeSlots = new int[keyframeCapacity * slotCount];
+		lastSlots = new int[slotCount];
+	}
+
+	/**
+	 * Forgets all frames.
+	 */
+	public void clear() {
+		lastFrame = -1;
+		keyframeCount = 0;
+	}
+
+	/**
+	 * Records the current state of the logic as the next frame.
+	 *
+	 * @param logic the logic to record
+	 */
+	public void record(BeanCounterLogic logic) {
+		long frame = lastFrame + 1;
+		int at = (int) (frame % capacity);
+		remaining[at] = logic.getRemainingBeanCount();
+		for (int y = 0; y < slotCount; y++) {
+			inFlight[at * slotCount + y] = logic.getInFlightBeanXPos(y);
+		}
+		// A single bean landing shows up as one slot going up by one
+		int landed = NO_LANDING;
+		boolean irregular = lastFrame < 0;
+		for (int i = 0; i < slotCount; i++) {
+			int count = logic.getSlotBeanCount(i);
+			int diff = count - lastSlots[i];
+			if (diff == 1 && landed == NO_LANDING) {
+				landed = i;
+			} else if (diff != 0) {
+				irregular = true;
+			}
+			lastSlots[i] = count;
+		}
+		landedSlot[at] = irregular ? NO_LANDING : landed;
+		lastFrame = frame;
+		if (irregular || keyframeCount == 0
+				|| frame - keyframeFrame[(int) ((keyframeCount - 1) % keyframeCapacity)] >= KEYFRAME_INTERVAL) {
+			int k = (int) (keyframeCount % keyframeCapacity);
+			keyframeFrame[k] = frame;
+			System.arraycopy(lastSlots, 0, keyframeSlots, k * slotCount, slotCount);
+			keyframeCount++;
+		}
+	}
+
+	/**
+	 * Returns the newest frame, or -1 if nothing has been recorded.
+	 *
+	 * @return the newest frame
+	 */
+	public long getLastFrame() {
+		return lastFrame;
+	}
+
+	/**
+	 * Returns the oldest frame that can still be sought to.
+	 *
+	 * @return the oldest seekable frame, or -1 if nothing has been recorded
+	 */
+	public long getFirstFrame() {
+		long oldestFrame = Math.max(0, lastFrame - capacity + 1);
+		for (long n = Math.max(0, keyframeCount - keyframeCapacity); n < keyframeCount; n++) {
+			long kf = keyframeFrame[(int) (n % keyframeCapacity)];
+			if (kf >= oldestFrame) {
+				return kf;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Rebuilds the state at a recorded frame.
+	 *
+	 * @param frame       the frame to seek to, between getFirstFrame() and
+	 *                    getLastFrame()
+	 * @param inFlightOut receives the in-flight x-position of every row
+	 * @param slotsOut    receives the bean count of every slot
+	 * @return the remaining bean count at that frame
+	 * @throws IllegalArgumentException if the frame is no longer (or not yet)
+	 *                                  recorded
+	 */
+	public int seek(long frame, int[] inFlightOut, int[] slotsOut) {
+		if (frame < getFirstFrame() || frame > lastFrame) {
+			throw new IllegalArgumentException("frame " + frame + " is not in the timeline");
+		}
+		// Newest keyframe at or before the frame
+		long n = keyframeCount - 1;
+		while (keyframeFrame[(int) (n % keyframeCapacity)] > frame) {
+			n--;
+		}
+		int k = (int) (n % keyframeCapacity);
+		System.arraycopy(keyframeSlots, k * slotCount, slotsOut, 0, slotCount);
+		for (long f = keyframeFrame[k] + 1; f <= frame; f++) {
+			int slot = landedSlot[(int) (f % capacity)];
+			if (slot != NO_LANDING) {
+				slotsOut[slot]++;
+			}
+		}
+		int at = (int) (frame % capacity);
+		System.arraycopy(inFlight, at * slotCount, inFlightOut, 0, slotCount);
+		return remaining[at];
+	}
+}
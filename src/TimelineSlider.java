@@ -0,0 +1,47 @@
+import javax.swing.JSlider;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+public class TimelineSlider extends JSlider {
+
+	private MainPanel mainPanel;
+
+	private boolean updating;	// Whether the range is being set by the panel, not the user
+
+	/**
+	 * Constructor - Adds a listener to the slider and registers it with the main
+	 * panel so that its range follows the recorded timeline.
+	 *
+	 * @param m the main animation panel where all the action happens
+	 */
+	public TimelineSlider(MainPanel m) {
+		super(0, 0, 0);
+		mainPanel = m;
+		setToolTipText("Drag to scrub back through recent steps");
+		addChangeListener(new TimelineSliderListener());
+		m.setTimelineSlider(this);
+	}
+
+	/**
+	 * Moves the slider to the live end of the timeline.
+	 *
+	 * @param first the oldest frame that can be sought to
+	 * @param last  the newest frame
+	 */
+	public void timelineChanged(long first, long last) {
+		updating = true;
+		setMinimum((int) Math.max(0, first));
+		setMaximum((int) Math.max(0, last));
+		setValue((int) Math.max(0, last));
+		updating = false;
+	}
+
+	class TimelineSliderListener implements ChangeListener {
+
+		public void stateChanged(ChangeEvent e) {
+			if (!updating) {
+				mainPanel.scrubTo(getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for Timeline.
+ */
+
+public class TimelineTest {
+
+	/**
+	 * Test case for Timeline. Preconditions: none. Execution steps: Run a
+	 * 10-slot machine for more frames than a 300-frame timeline keeps, with
+	 * random upperHalf(), lowerHalf() and repeat() calls between the steps,
+	 * recording a frame after every operation; then seek to every frame still
+	 * in the timeline. Invariants: every frame sought to has the remaining bean
+	 * count, in-flight positions and slot bean counts the machine had when it
+	 * was recorded, frames out of the timeline are rejected, and clear()
+	 * forgets all frames.
+	 */
+	@Test
+	public void testTimeline() {
+		int slots = 10;
+		int capacity = 300;
+		Random rand = new Random(34);
+		BeanCounterLogicImpl machine = new BeanCounterLogicImpl(slots);
+		Timeline timeline = new Timeline(slots, capacity);
+		List<String> states = new ArrayList<>();
+		machine.reset(BeanCounterLogicTest.seededBeans(slots, 200, true, 34));
+		timeline.record(machine);
+		states.add(BeanCounterLogicTest.describe(machine, slots));
+		while (states.size() < 4 * capacity) {
+			int choice = rand.nextInt(40);
+			if (choice == 0) {
+				machine.upperHalf();
+			} else if (choice == 1) {
+				machine.lowerHalf();
+			} else if (choice == 2 || !machine.advanceStep()) {
+				machine.repeat();
+			}
+			timeline.record(machine);
+			states.add(BeanCounterLogicTest.describe(machine, slots));
+		}
+
+		long last = timeline.getLastFrame();
+		long first = timeline.getFirstFrame();
+		assertEquals(states.size() - 1, last);
+		assertTrue("first frame " + first,
+				first > last - capacity && first <= last - capacity + Timeline.KEYFRAME_INTERVAL);
+		int[] inFlight = new int[slots];
+		int[] slotCounts = new int[slots];
+		for (long frame = first; frame <= last; frame++) {
+			int remaining = timeline.seek(frame, inFlight, slotCounts);
+			StringBuilder bld = new StringBuilder();
+			for (int i = 0; i < slots; i++) {
+				bld.append(inFlight[i]).append('/').append(slotCounts[i]).append(' ');
+			}
+			bld.append("remaining ").append(remaining);
+			assertEquals("frame " + frame, states.get((int) frame), bld.toString());
+		}
+		for (long frame : new long[] {first - 1, last + 1}) {
+			try {
+				timeline.seek(frame, inFlight, slotCounts);
+				fail("sought to frame " + frame + " outside " + first + ".." + last);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+
+		timeline.clear();
+		assertEquals(-1, timeline.getLastFrame());
+		assertEquals(-1, timeline.getFirstFrame());
+	}
+
+	/**
+	 * Test case for Timeline(int, int). Preconditions: none. Execution steps:
+	 * Create timelines with capacities just below and at KEYFRAME_INTERVAL.
+	 * Invariants: the smaller capacity is rejected with
+	 * IllegalArgumentException, the other is accepted.
+	 */
+	@Test
+	public void testCapacityBelowKeyframeInterval() {
+		try {
+			new Timeline(5, Timeline.KEYFRAME_INTERVAL - 1);
+			fail("accepted capacity " + (Timeline.KEYFRAME_INTERVAL - 1));
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(-1, new Timeline(5, Timeline.KEYFRAME_INTERVAL).getFirstFrame());
+	}
+}